@@ -0,0 +1,83 @@
+package d1.bench;
+
+import d1.DownloadManga;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Time to download a whole chapter through DownloadManga, including finding the end of the chapter.
+ * Every invocation downloads the chapter under a fresh series name, so nothing is skipped as already done.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChapterFetchBenchmark {
+
+    @Param({"20", "60"})
+    public int pages;
+
+    @Param({"0", "20"})
+    public long latencyMillis;
+
+    @Param({"folder", "cbz"})
+    public String output;
+
+    private StandInServer server;
+    private final AtomicInteger runs = new AtomicInteger();
+
+    /**
+     * Series name of the current invocation, deleted again after it
+     */
+    @State(Scope.Thread)
+    public static class Run {
+        String name;
+
+        @Setup(Level.Invocation)
+        public void next(ChapterFetchBenchmark benchmark) {
+            name = "chapter~" + benchmark.runs.incrementAndGet();
+        }
+
+        @TearDown(Level.Invocation)
+        public void clean() throws IOException {
+            Workspace.delete(Workspace.MANGAS_DIR.resolve(name));
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        Workspace.reset();
+        server = StandInServer.start()
+                .add(new StandInServer.Series("chapter", 1, pages).latency(latencyMillis));
+        System.setProperty("manga.baseUrl", server.baseUrl());
+        System.setProperty("manga.output", output);
+    }
+
+    @Benchmark
+    public void fetchChapter(Run run) {
+        DownloadManga.downloadManga(run.name, 1, "%03d");
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        server.printSummary();
+        server.close();
+    }
+}
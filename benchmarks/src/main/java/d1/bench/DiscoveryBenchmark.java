@@ -0,0 +1,86 @@
+package d1.bench;
+
+import d1.DownloadManga;
+import d1.MangaUpdater;
+import d1.NegativeCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time for MangaUpdater to decide that an up-to-date series has nothing new: re-checking the gaps
+ * in the library and probing past the newest chapter. A cold negative cache forgets every 404 before
+ * each run, a warm one keeps them as a repeated update run within the TTL would.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DiscoveryBenchmark {
+
+    private static final String SERIES = "ongoing";
+
+    @Param({"50", "500"})
+    public int chapters;
+
+    @Param({"gallop", "sequential"})
+    public String discovery;
+
+    @Param({"cold", "warm"})
+    public String negativeCache;
+
+    @Param({"5"})
+    public long latencyMillis;
+
+    private StandInServer server;
+    private MangaUpdater updater;
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        Workspace.reset(SERIES + "," + chapters + ",3");
+        server = StandInServer.start()
+                .add(new StandInServer.Series(SERIES, chapters, 2).missing(chapters / 2).pageBytes(4096).latency(latencyMillis));
+        System.setProperty("manga.baseUrl", server.baseUrl());
+        System.setProperty("manga.update.discovery", discovery);
+
+        DownloadManga.downloadManga(SERIES, chapters, "%03d");
+        updater = new MangaUpdater();
+    }
+
+    @Setup(Level.Invocation)
+    public void forget() {
+        if (negativeCache.equals("cold")) {
+            // Chapter keys are name#chapter
+            String chapterPrefix = SERIES + "#";
+            NegativeCache.clearPrefix(NegativeCache.Kind.CHAPTER_GAP, chapterPrefix);
+            NegativeCache.clearPrefix(NegativeCache.Kind.CHAPTER_NEXT, chapterPrefix);
+            NegativeCache.clearPrefix(NegativeCache.Kind.PAGE, server.baseUrl() + SERIES + "/");
+        }
+    }
+
+    @Benchmark
+    public int discover() {
+        return updater.updateAllMangas();
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        server.printSummary();
+        server.close();
+    }
+}
@@ -0,0 +1,91 @@
+package d1.bench;
+
+import d1.DownloadManga;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Time to download the first page of a chapter whose file type is not known in advance.
+ * The series switches its extension every extensionRun chapters (0 never), so the predictor is
+ * right most of the time, or wrong for every chapter and falls back to HEAD probes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExtensionProbeBenchmark {
+
+    private static final String SERIES = "mixed";
+    private static final int CHAPTERS = 1_000_000;
+
+    @Param({"0", "1", "10"})
+    public int extensionRun;
+
+    @Param({"0", "5"})
+    public long latencyMillis;
+
+    private StandInServer server;
+    private final AtomicInteger chapters = new AtomicInteger();
+    private final AtomicInteger threads = new AtomicInteger();
+
+    /**
+     * Each benchmark thread writes into its own folder
+     */
+    @State(Scope.Thread)
+    public static class Slot {
+        String folder;
+
+        @Setup(Level.Trial)
+        public void claim(ExtensionProbeBenchmark benchmark) {
+            folder = Workspace.MANGAS_DIR.resolve(SERIES).resolve("probe-" + benchmark.threads.incrementAndGet()).toString();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        Workspace.reset();
+        server = StandInServer.start().add(new StandInServer.Series(SERIES, CHAPTERS, 1)
+                .extensions(extensionRun, ".png", ".jpg", ".webp").pageBytes(16 * 1024).latency(latencyMillis));
+        System.setProperty("manga.baseUrl", server.baseUrl());
+    }
+
+    @Benchmark
+    public void probePage(Slot slot, Blackhole blackhole) {
+        // Every chapter is new to the predictor, only the series-wide guess carries over
+        int chapter = chapters.incrementAndGet() % CHAPTERS + 1;
+        blackhole.consume(Pages.downloadFirstPage(String.format("%03d", chapter), slot.folder));
+    }
+
+    /**
+     * Reaches the page download of DownloadManga; loaded on first use, after manga.baseUrl is set
+     */
+    static final class Pages extends DownloadManga {
+        static Object downloadFirstPage(String chapter, String folder) {
+            return downloadPageAnyType(SERIES, chapter, "01", folder);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        server.printSummary();
+        server.close();
+    }
+}
@@ -0,0 +1,78 @@
+package d1.bench;
+
+import d1.DownloadImage;
+import d1.DownloadResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Time to download one page through DownloadImage: scheduler permit, request, streaming to the
+ * partial file and the rename into place. Run with -t to see how it scales with concurrent pages.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PageFetchBenchmark {
+
+    @Param({"0", "20"})
+    public long latencyMillis;
+
+    @Param({"65536", "1048576"})
+    public int pageBytes;
+
+    private StandInServer server;
+    private String url;
+    private String folder;
+    private final AtomicInteger threads = new AtomicInteger();
+
+    /**
+     * Each benchmark thread writes its own file
+     */
+    @State(Scope.Thread)
+    public static class Slot {
+        String fileName;
+
+        @Setup(Level.Trial)
+        public void claim(PageFetchBenchmark benchmark) {
+            fileName = String.format("%02d.jpg", benchmark.threads.incrementAndGet());
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        Workspace.reset();
+        server = StandInServer.start()
+                .add(new StandInServer.Series("single", 1, 1).pageBytes(pageBytes).latency(latencyMillis));
+        url = server.pageUrl("single", 1, 1);
+        folder = Workspace.MANGAS_DIR.resolve("single").resolve("Chapter 1").toString();
+    }
+
+    @Benchmark
+    public DownloadResult fetchPage(Slot slot) {
+        return DownloadImage.download(folder, slot.fileName, url);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        server.printSummary();
+        server.close();
+    }
+}
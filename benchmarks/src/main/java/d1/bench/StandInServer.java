@@ -0,0 +1,281 @@
+package d1.bench;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local HTTP server that stands in for the manga site, serving synthetic series under the same URL
+ * layout: /uploads/manga/name/chapters/chNNN/PP.ext. Anything a series does not have answers 404.
+ * A series name followed by "~suffix" serves the same series under a fresh name, so a benchmark can
+ * download it again without the library, manifest or negative cache remembering the last run.
+ */
+public final class StandInServer implements AutoCloseable {
+
+    private static final String PREFIX = "/uploads/manga/";
+
+    /**
+     * A synthetic series: how many chapters and pages it has, which chapters are missing,
+     * and which chapter number format and file extension each chapter is served under
+     */
+    public static final class Series {
+        final String name;
+        final int chapters;
+        final int pages;
+        private final NavigableMap<Integer, String> formats = new TreeMap<>();
+        private final Set<Integer> missingChapters = new HashSet<>();
+        private String[] extensionCycle = {".jpg"};
+        private int extensionRun = 0;
+        private int pageBytes = 64 * 1024;
+        private long latencyMillis = 0;
+        private final Map<String, byte[]> bodies = new ConcurrentHashMap<>();
+
+        /**
+         * @param name Series name in the URL
+         * @param chapters Number of the latest chapter
+         * @param pages Pages per chapter
+         */
+        public Series(String name, int chapters, int pages) {
+            this.name = name;
+            this.chapters = chapters;
+            this.pages = pages;
+            formats.put(1, "%03d");
+        }
+
+        /**
+         * Serves chapters from the given one on under another number format, e.g. "%d"
+         */
+        public Series format(int fromChapter, String format) {
+            formats.put(fromChapter, format);
+            return this;
+        }
+
+        /**
+         * Leaves chapters out of the series, so they answer 404 like a gap on the real site
+         */
+        public Series missing(int... chapterNumbers) {
+            for (int chapter : chapterNumbers) {
+                missingChapters.add(chapter);
+            }
+            return this;
+        }
+
+        /**
+         * Switches the file extension every run chapters, cycling through the given ones.
+         * A run of 0 keeps the first extension for the whole series.
+         */
+        public Series extensions(int run, String... cycle) {
+            this.extensionRun = run;
+            this.extensionCycle = cycle.clone();
+            return this;
+        }
+
+        /**
+         * Size of every page image in bytes
+         */
+        public Series pageBytes(int bytes) {
+            this.pageBytes = bytes;
+            return this;
+        }
+
+        /**
+         * Delay before every response, to model the distance to the real server
+         */
+        public Series latency(long millis) {
+            this.latencyMillis = millis;
+            return this;
+        }
+
+        public String formatOf(int chapter) {
+            return formats.floorEntry(chapter).getValue();
+        }
+
+        public String extensionOf(int chapter) {
+            if (extensionRun <= 0) {
+                return extensionCycle[0];
+            }
+            return extensionCycle[((chapter - 1) / extensionRun) % extensionCycle.length];
+        }
+
+        boolean hasChapter(int chapter) {
+            return chapter >= 1 && chapter <= chapters && !missingChapters.contains(chapter);
+        }
+
+        byte[] body(String extension) {
+            return bodies.computeIfAbsent(extension, ext -> SyntheticImages.create(ext, pageBytes, name.hashCode()));
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<String, Series> series = new ConcurrentHashMap<>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong notFound = new AtomicLong();
+
+    private StandInServer(HttpServer server) {
+        this.server = server;
+    }
+
+    /**
+     * Starts a server on a free loopback port
+     */
+    public static StandInServer start() throws IOException {
+        // Without TCP_NODELAY small responses wait for the client's delayed ACK, adding ~40 ms each
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        HttpServer httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        StandInServer standIn = new StandInServer(httpServer);
+        httpServer.createContext(PREFIX, standIn::handle);
+        httpServer.setExecutor(standIn.executor);
+        httpServer.start();
+        return standIn;
+    }
+
+    public StandInServer add(Series spec) {
+        series.put(spec.name, spec);
+        return this;
+    }
+
+    /**
+     * Returns the base URL the downloader expects in manga.baseUrl
+     */
+    public String baseUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + PREFIX;
+    }
+
+    /**
+     * Returns the URL of a page the way the downloader builds it
+     */
+    public String pageUrl(String name, int chapter, int page) {
+        Series spec = series.get(baseName(name));
+        return baseUrl() + name + "/chapters/ch" + String.format(spec.formatOf(chapter), chapter)
+                + "/" + String.format("%02d", page) + spec.extensionOf(chapter);
+    }
+
+    /**
+     * Prints how many requests the server answered, to compare request counts between changes
+     */
+    public void printSummary() {
+        System.out.println("[INFO] Stand-in server: " + requests.get() + " requests, " + notFound.get() + " answered 404");
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try (exchange) {
+            String path = exchange.getRequestURI().getPath().substring(PREFIX.length());
+            // name/chapters/chNNN/PP.ext
+            String[] parts = path.split("/");
+            Series spec = parts.length == 4 && parts[1].equals("chapters") && parts[2].startsWith("ch")
+                    ? series.get(baseName(parts[0]))
+                    : null;
+            byte[] body = spec != null ? lookUp(spec, parts[2].substring(2), parts[3]) : null;
+            if (spec != null && spec.latencyMillis > 0) {
+                Thread.sleep(spec.latencyMillis);
+            }
+            if (body == null) {
+                notFound.incrementAndGet();
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            String extension = parts[3].substring(parts[3].lastIndexOf('.') + 1);
+            exchange.getResponseHeaders().set("Content-Type", "image/" + (extension.equals("jpg") ? "jpeg" : extension));
+            if (exchange.getRequestMethod().equals("HEAD")) {
+                exchange.getResponseHeaders().set("Content-Length", String.valueOf(body.length));
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the page body, or null if the series has no such chapter, page or extension
+     */
+    private static byte[] lookUp(Series spec, String chapterString, String fileName) {
+        int chapter;
+        int page;
+        int dot = fileName.lastIndexOf('.');
+        try {
+            chapter = Integer.parseInt(chapterString);
+            page = dot > 0 ? Integer.parseInt(fileName.substring(0, dot)) : -1;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (!spec.hasChapter(chapter) || page < 1 || page > spec.pages
+                || !String.format(spec.formatOf(chapter), chapter).equals(chapterString)
+                || !String.format("%02d", page).equals(fileName.substring(0, dot))
+                || !spec.extensionOf(chapter).equals(fileName.substring(dot))) {
+            return null;
+        }
+        return spec.body(fileName.substring(dot));
+    }
+
+    private static String baseName(String name) {
+        int tilde = name.indexOf('~');
+        return tilde >= 0 ? name.substring(0, tilde) : name;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Page bodies that start and end like real image files, filled with incompressible bytes
+     */
+    static final class SyntheticImages {
+        private static final byte[] JPEG_START = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0};
+        private static final byte[] JPEG_END = {(byte) 0xFF, (byte) 0xD9};
+        private static final byte[] PNG_START = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+        private static final byte[] PNG_END = {0, 0, 0, 0, 'I', 'E', 'N', 'D', (byte) 0xAE, 'B', 0x60, (byte) 0x82};
+
+        private SyntheticImages() {
+        }
+
+        static byte[] create(String extension, int size, long seed) {
+            byte[] body = new byte[Math.max(size, 32)];
+            new SplittableRandom(seed).nextBytes(body);
+            switch (extension) {
+                case ".png":
+                    System.arraycopy(PNG_START, 0, body, 0, PNG_START.length);
+                    System.arraycopy(PNG_END, 0, body, body.length - PNG_END.length, PNG_END.length);
+                    break;
+                case ".webp":
+                    // RIFF header with the size of everything after the first 8 bytes, little-endian
+                    System.arraycopy("RIFF".getBytes(StandardCharsets.US_ASCII), 0, body, 0, 4);
+                    int riffSize = body.length - 8;
+                    for (int i = 0; i < 4; i++) {
+                        body[4 + i] = (byte) (riffSize >>> (8 * i));
+                    }
+                    System.arraycopy("WEBPVP8 ".getBytes(StandardCharsets.US_ASCII), 0, body, 8, 8);
+                    break;
+                default:
+                    System.arraycopy(JPEG_START, 0, body, 0, JPEG_START.length);
+                    System.arraycopy(JPEG_END, 0, body, body.length - JPEG_END.length, JPEG_END.length);
+                    break;
+            }
+            return body;
+        }
+    }
+}
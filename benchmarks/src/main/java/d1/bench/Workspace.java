@@ -0,0 +1,53 @@
+package d1.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Scratch library in the working directory. The downloader resolves Mangas/ and data.txt against the
+ * working directory, so the benchmarks run in one of their own (the jmh task uses build/jmh-work).
+ * A Mangas directory or data.txt without the marker file belongs to a real library and is never touched.
+ */
+final class Workspace {
+
+    static final Path MANGAS_DIR = Paths.get("Mangas");
+    private static final Path MARKER = MANGAS_DIR.resolve(".benchmark");
+    private static final Path DATA_FILE = Paths.get("data.txt");
+
+    private Workspace() {
+    }
+
+    /**
+     * Empties the scratch library; must run before any downloader class is loaded
+     * @param dataFile Lines for data.txt, in the name,chapters,formatType layout
+     */
+    static void reset(String... dataFile) throws IOException {
+        if (!Files.exists(MARKER) && (Files.exists(MANGAS_DIR) || Files.exists(DATA_FILE))) {
+            throw new IllegalStateException("Refusing to benchmark in " + DATA_FILE.toAbsolutePath().getParent()
+                    + ", it holds a real library; run from an empty directory");
+        }
+        delete(MANGAS_DIR);
+        Files.createDirectories(MANGAS_DIR);
+        Files.createFile(MARKER);
+        Files.write(DATA_FILE, Arrays.asList(dataFile));
+    }
+
+    /**
+     * Deletes a file tree if it exists
+     */
+    static void delete(Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
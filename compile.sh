@@ -1,3 +1,4 @@
 #!/bin/bash
+# Requires JDK 21 or newer (virtual threads)
 mkdir -p bin
 javac -d bin src/d1/*.java
\ No newline at end of file
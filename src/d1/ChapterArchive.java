@@ -0,0 +1,165 @@
+package d1;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Per-chapter .cbz archive that pages are appended to as they finish downloading.
+ * Entries are stored without compression since images are already compressed, and page files are
+ * streamed into them rather than read into memory. The archive is written as a hidden
+ * .Chapter N.cbz.part and renamed to Chapter N.cbz once the chapter is complete, so a finished
+ * archive is always whole. Pages stay in the staging folder until then, so an incomplete chapter
+ * resumes from them on the next run. Enabled with manga.output=cbz.
+ */
+public class ChapterArchive implements AutoCloseable {
+
+    public static final String EXTENSION = ".cbz";
+    private static final String CHAPTER_PREFIX = "Chapter ";
+    private static final String PART_SUFFIX = ".part";
+    private static final boolean ENABLED = "cbz".equalsIgnoreCase(System.getProperty("manga.output", "folder"));
+
+    private final Path archivePath;
+    private final Path partPath;
+    private final ZipOutputStream zip;
+    private boolean closed = false;
+
+    private ChapterArchive(Path archivePath) throws IOException {
+        this.archivePath = archivePath;
+        this.partPath = archivePath.resolveSibling("." + archivePath.getFileName() + PART_SUFFIX);
+        OutputStream out = Files.newOutputStream(partPath);
+        this.zip = new ZipOutputStream(out);
+        this.zip.setMethod(ZipOutputStream.STORED);
+    }
+
+    /**
+     * Returns true if chapters are packaged as .cbz archives instead of page folders
+     */
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Returns the path of the finished archive of a chapter
+     */
+    public static Path archivePath(Path mangaPath, int chapterIndex) {
+        return mangaPath.resolve(CHAPTER_PREFIX + chapterIndex + EXTENSION);
+    }
+
+    /**
+     * Returns the hidden folder pages are downloaded into before they are added to the archive.
+     * Pages and partial downloads stay there until the archive is committed, so they can be resumed.
+     */
+    public static Path stagingPath(Path mangaPath, int chapterIndex) {
+        return mangaPath.resolve("." + CHAPTER_PREFIX + chapterIndex);
+    }
+
+    /**
+     * Starts a new archive for a chapter, replacing any unfinished one
+     */
+    public static ChapterArchive create(Path mangaPath, int chapterIndex) throws IOException {
+        return new ChapterArchive(archivePath(mangaPath, chapterIndex));
+    }
+
+    /**
+     * Appends a downloaded page as a stored entry; the page file is kept until the archive is committed
+     * @param pagePath Downloaded page; the entry is named after the file
+     */
+    public synchronized void addPage(Path pagePath) throws IOException {
+        // Stored entries need their CRC up front, so the file is read twice instead of held in memory
+        CRC32 crc = new CRC32();
+        try (InputStream in = new CheckedInputStream(Files.newInputStream(pagePath), crc)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        long size = Files.size(pagePath);
+
+        ZipEntry entry = new ZipEntry(pagePath.getFileName().toString());
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(size);
+        entry.setCompressedSize(size);
+        entry.setCrc(crc.getValue());
+        entry.setLastModifiedTime(Files.getLastModifiedTime(pagePath));
+        zip.putNextEntry(entry);
+        Files.copy(pagePath, zip);
+        zip.closeEntry();
+    }
+
+    /**
+     * Writes the central directory and renames the archive into place
+     */
+    public synchronized void commit() throws IOException {
+        closed = true;
+        zip.close();
+        try {
+            Files.move(partPath, archivePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(partPath, archivePath, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Discards an archive that was not committed; its pages are still in the staging folder
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            zip.close();
+        } catch (IOException e) {
+            // The partial archive is deleted below either way
+        }
+        try {
+            Files.deleteIfExists(partPath);
+        } catch (IOException e) {
+            System.err.println("[WARN] Could not delete unfinished archive " + partPath + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Lists the pages of a finished archive with their sizes, read from the central directory
+     * @throws IOException if the archive is unreadable or truncated
+     */
+    public static Map<String, Long> readIndex(Path archivePath) throws IOException {
+        Map<String, Long> pages = new TreeMap<>();
+        try (ZipFile zipFile = new ZipFile(archivePath.toFile())) {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory()) {
+                    pages.put(entry.getName(), entry.getSize());
+                }
+            }
+        }
+        return pages;
+    }
+
+    /**
+     * Returns the chapter number of a finished archive such as "Chapter 12.cbz", or -1
+     */
+    public static int chapterNumber(Path archivePath) {
+        String fileName = archivePath.getFileName().toString();
+        if (!fileName.startsWith(CHAPTER_PREFIX) || !fileName.endsWith(EXTENSION)) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(fileName.substring(CHAPTER_PREFIX.length(), fileName.length() - EXTENSION.length()).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
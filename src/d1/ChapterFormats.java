@@ -0,0 +1,245 @@
+package d1;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Registry of the chapter number format ("%d", "%02d" or "%03d") each series uses on the server.
+ * Formats come from past detections, the series manifest and data.txt, in that order of trust.
+ * A series that switches its numbering scheme gets a new format starting at the chapter where
+ * the switch was seen. Persisted in Mangas/.formats.properties as name=fromChapter:format,...
+ *
+ * A chapter string only settles the format if no other format produces it: "05" does, but "12" may be
+ * "%02d" or "%d" and "100" any of the three. Such a detection applies from its chapter on, where the
+ * candidate formats agree anyway; lower chapters keep all formats as candidates until one is found.
+ */
+public final class ChapterFormats {
+
+    private static final String[] ALL_FORMATS = {"%03d", "%02d", "%d"};
+    private static final Path STORE_FILE = Paths.get("Mangas", ".formats.properties");
+
+    // Format per series, keyed by the first chapter it applies to
+    private static final Map<String, NavigableMap<Integer, String>> schemes = new ConcurrentHashMap<>();
+    private static volatile boolean dirty = false;
+
+    static {
+        load();
+    }
+
+    private ChapterFormats() {
+    }
+
+    /**
+     * Returns the format of a chapter, or null if the series has no known format
+     */
+    public static String get(String mangaName, int chapter) {
+        NavigableMap<Integer, String> scheme = schemes.get(mangaName);
+        if (scheme == null) {
+            return null;
+        }
+        // Chapters below the first detection may use any format
+        Map.Entry<Integer, String> entry = scheme.floorEntry(chapter);
+        return entry != null ? entry.getValue() : null;
+    }
+
+    /**
+     * Returns the format of a chapter, or the given fallback if the series has no known format
+     */
+    public static String getOrDefault(String mangaName, int chapter, String fallback) {
+        String format = get(mangaName, chapter);
+        return format != null ? format : fallback;
+    }
+
+    /**
+     * Returns true if the series has a known format, at least for its later chapters
+     */
+    public static boolean isKnown(String mangaName) {
+        return schemes.containsKey(mangaName);
+    }
+
+    /**
+     * Returns the chapter strings worth probing for a chapter, without duplicates.
+     * A chapter with a known format yields only that format unless alternatives are requested.
+     * @param includeAlternatives Also try the other formats, to notice a change of numbering scheme
+     */
+    public static String[] candidates(String mangaName, int chapter, boolean includeAlternatives) {
+        Set<String> chapters = new LinkedHashSet<>();
+        String known = get(mangaName, chapter);
+        if (known != null) {
+            chapters.add(String.format(known, chapter));
+        }
+        if (known == null || includeAlternatives) {
+            // Formats overlap for larger numbers, e.g. chapter 100 is "100" in all three
+            for (String format : ALL_FORMATS) {
+                chapters.add(String.format(format, chapter));
+            }
+        }
+        return chapters.toArray(new String[0]);
+    }
+
+    /**
+     * Uses a format from configuration or the manifest if the series has none yet
+     * @param source Where the format comes from, for the log
+     */
+    public static synchronized void seed(String mangaName, String format, String source) {
+        if (format == null) {
+            return;
+        }
+        String normalized = normalize(format);
+        NavigableMap<Integer, String> scheme = schemes.get(mangaName);
+        if (scheme == null) {
+            scheme = new ConcurrentSkipListMap<>();
+            scheme.put(1, normalized);
+            schemes.put(mangaName, scheme);
+            dirty = true;
+        } else if (!normalized.equals(scheme.lastEntry().getValue())) {
+            System.out.println("[WARN] " + source + " format " + normalized + " for " + mangaName
+                    + " differs from detected " + scheme.lastEntry().getValue() + ", using detected");
+        }
+    }
+
+    /**
+     * Records the chapter string a chapter was actually found under.
+     * If it does not match the known format, the series changed its numbering scheme at this chapter.
+     * A chapter string that several formats produce says nothing about lower chapters, so it is only
+     * recorded from this chapter on.
+     */
+    public static synchronized void confirm(String mangaName, int chapter, String chapterString) {
+        String known = get(mangaName, chapter);
+        if (known != null && String.format(known, chapter).equals(chapterString)) {
+            return;
+        }
+        List<String> matching = matchingFormats(chapter, chapterString);
+        boolean unambiguous = matching.size() == 1;
+        // Without a match the string is taken at its length; of several matches the narrowest is kept
+        String detected = matching.isEmpty() ? formatOf(chapterString) : matching.get(matching.size() - 1);
+        NavigableMap<Integer, String> scheme = schemes.computeIfAbsent(mangaName, name -> new ConcurrentSkipListMap<>());
+        if (known == null) {
+            scheme.put(unambiguous ? 1 : chapter, detected);
+            System.out.println("[INFO] Detected format pattern for " + mangaName + ": " + detected
+                    + (unambiguous ? "" : " from chapter " + chapter + ", earlier chapters still undecided"));
+        } else {
+            scheme.put(chapter, detected);
+            System.out.println("[INFO] " + mangaName + " changed its numbering from " + known + " to " + detected
+                    + " at chapter " + chapter);
+        }
+        dropRedundant(scheme);
+        dirty = true;
+    }
+
+    /**
+     * Returns the formats that turn the chapter number into the given string, widest first
+     */
+    private static List<String> matchingFormats(int chapter, String chapterString) {
+        List<String> matching = new ArrayList<>();
+        for (String format : ALL_FORMATS) {
+            if (String.format(format, chapter).equals(chapterString)) {
+                matching.add(format);
+            }
+        }
+        return matching;
+    }
+
+    /**
+     * Removes entries that spell their first chapter like the entry before them. Formats that agree on a
+     * chapter agree on every later one, so such an entry changes nothing, e.g. 100:%d after 1:%02d.
+     */
+    private static void dropRedundant(NavigableMap<Integer, String> scheme) {
+        String previous = null;
+        for (Map.Entry<Integer, String> entry : new ArrayList<>(scheme.entrySet())) {
+            if (previous != null && String.format(previous, entry.getKey()).equals(String.format(entry.getValue(), entry.getKey()))) {
+                scheme.remove(entry.getKey());
+            } else {
+                previous = entry.getValue();
+            }
+        }
+    }
+
+    /**
+     * Returns the format whose output has the length of the given chapter string
+     */
+    public static String formatOf(String chapterString) {
+        switch (chapterString.length()) {
+            case 1: return "%d";
+            case 2: return "%02d";
+            default: return "%03d";
+        }
+    }
+
+    /**
+     * Maps equivalent spellings such as "%01d" to the canonical format
+     */
+    private static String normalize(String format) {
+        return format.equals("%01d") || format.equals("%1d") ? "%d" : format;
+    }
+
+    private static void load() {
+        if (!Files.exists(STORE_FILE)) {
+            return;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(STORE_FILE)) {
+            properties.load(in);
+            for (String name : properties.stringPropertyNames()) {
+                NavigableMap<Integer, String> scheme = new ConcurrentSkipListMap<>();
+                for (String segment : properties.getProperty(name).split(",")) {
+                    int separator = segment.indexOf(':');
+                    try {
+                        scheme.put(Integer.parseInt(segment.substring(0, separator).trim()), segment.substring(separator + 1).trim());
+                    } catch (RuntimeException e) {
+                        System.err.println("[WARN] Skipping invalid format entry for " + name + ": " + segment);
+                    }
+                }
+                if (!scheme.isEmpty()) {
+                    schemes.put(name, scheme);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("[WARN] Failed to read " + STORE_FILE + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the registry to disk if it changed during this run
+     */
+    public static synchronized void save() {
+        if (!dirty || !Files.isDirectory(STORE_FILE.getParent())) {
+            return;
+        }
+        Properties properties = new Properties();
+        for (Map.Entry<String, NavigableMap<Integer, String>> entry : schemes.entrySet()) {
+            StringBuilder encoded = new StringBuilder();
+            for (Map.Entry<Integer, String> segment : entry.getValue().entrySet()) {
+                if (encoded.length() > 0) {
+                    encoded.append(',');
+                }
+                encoded.append(segment.getKey()).append(':').append(segment.getValue());
+            }
+            properties.setProperty(entry.getKey(), encoded.toString());
+        }
+        Path temp = STORE_FILE.resolveSibling(STORE_FILE.getFileName() + ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                properties.store(out, "Chapter number format per manga, keyed by the first chapter it applies to");
+            }
+            Files.move(temp, STORE_FILE, StandardCopyOption.REPLACE_EXISTING);
+            dirty = false;
+        } catch (IOException e) {
+            System.err.println("[WARN] Failed to write " + STORE_FILE + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package d1;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Shared queue of chapter downloads across all series of a run. A fixed set of workers takes the next
+ * chapter as soon as it finishes one, so no worker idles while any series still has chapters left,
+ * however unevenly the work is spread over the series.
+ * Series are interleaved with stride scheduling: among the series with the highest priority that have work,
+ * the one that received the least service relative to its weight goes next. Priorities and weights are set
+ * per series with configure, e.g. from the priority= and weight= columns of data.txt.
+ */
+public final class ChapterScheduler {
+
+    private static final Map<String, Integer> priorities = new ConcurrentHashMap<>();
+    private static final Map<String, Double> weights = new ConcurrentHashMap<>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Map<String, SeriesQueue> queues = new LinkedHashMap<>();
+    private final ExecutorService workers;
+    private double virtualTime = 0;
+    private int running = 0;
+    private boolean shutdown = false;
+
+    /**
+     * Chapters of one series waiting for a worker
+     */
+    private static final class SeriesQueue {
+        final String name;
+        final int priority;
+        final double stride;
+        final Deque<Runnable> tasks = new ArrayDeque<>();
+        double pass;
+        int running = 0;
+        int finished = 0;
+
+        SeriesQueue(String name, double pass) {
+            this.name = name;
+            this.priority = priorities.getOrDefault(name, 0);
+            this.stride = 1.0 / weights.getOrDefault(name, 1.0);
+            this.pass = pass;
+        }
+    }
+
+    /**
+     * Starts the workers; each runs on its own virtual thread
+     * @param name Prefix for the worker thread names
+     * @param workerCount Number of chapters downloading at the same time
+     */
+    public ChapterScheduler(String name, int workerCount) {
+        this.workers = DownloadScheduler.newScope(name);
+        for (int i = 0; i < Math.max(1, workerCount); i++) {
+            workers.submit(this::work);
+        }
+    }
+
+    /**
+     * Sets how a series is scheduled; higher priorities go first, weights share out workers within a priority
+     * @param priority Strict priority, 0 by default
+     * @param weight Relative share of the workers, 1 by default
+     */
+    public static void configure(String mangaName, Integer priority, Double weight) {
+        if (priority != null) {
+            priorities.put(mangaName, priority);
+        }
+        if (weight != null) {
+            if (weight <= 0) {
+                throw new IllegalArgumentException("Weight must be positive: " + weight);
+            }
+            weights.put(mangaName, weight);
+        }
+    }
+
+    /**
+     * Queues a chapter download of a series; chapters of a series start in the order they were queued
+     */
+    public void submit(String mangaName, Runnable task) {
+        lock.lock();
+        try {
+            if (shutdown) {
+                throw new IllegalStateException("Scheduler is shut down");
+            }
+            SeriesQueue queue = queues.get(mangaName);
+            if (queue == null) {
+                // A series joining late starts level with the others instead of catching up on service it never asked for
+                queue = new SeriesQueue(mangaName, virtualTime);
+                queues.put(mangaName, queue);
+            } else if (queue.tasks.isEmpty() && queue.running == 0) {
+                queue.pass = Math.max(queue.pass, virtualTime);
+            }
+            queue.tasks.addLast(task);
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of chapters queued or downloading
+     */
+    public int getPending() {
+        lock.lock();
+        try {
+            int pending = running;
+            for (SeriesQueue queue : queues.values()) {
+                pending += queue.tasks.size();
+            }
+            return pending;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops accepting chapters and waits until every queued chapter has finished
+     */
+    public void awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        lock.lock();
+        try {
+            shutdown = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        workers.shutdown();
+        if (!workers.awaitTermination(timeout, unit)) {
+            System.err.println("[WARN] Chapter downloads did not finish within " + unit.toMinutes(timeout) + " minute(s)");
+            workers.shutdownNow();
+        }
+    }
+
+    private void work() {
+        while (true) {
+            SeriesQueue queue;
+            Runnable task;
+            lock.lock();
+            try {
+                while ((queue = pickSeries()) == null) {
+                    if (shutdown) {
+                        return;
+                    }
+                    changed.await();
+                }
+                task = queue.tasks.pollFirst();
+                virtualTime = queue.pass;
+                queue.pass += queue.stride;
+                queue.running++;
+                running++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                System.err.println("[ERROR] Manga: " + queue.name + " | Chapter task failed: " + e.getMessage());
+            } finally {
+                finish(queue);
+            }
+        }
+    }
+
+    /**
+     * Returns the series that should get the next worker, or null if nothing is queued
+     */
+    private SeriesQueue pickSeries() {
+        SeriesQueue best = null;
+        for (SeriesQueue queue : queues.values()) {
+            if (queue.tasks.isEmpty()) {
+                continue;
+            }
+            if (best == null || queue.priority > best.priority
+                    || (queue.priority == best.priority && queue.pass < best.pass)) {
+                best = queue;
+            }
+        }
+        return best;
+    }
+
+    private void finish(SeriesQueue queue) {
+        boolean seriesDone;
+        lock.lock();
+        try {
+            queue.running--;
+            queue.finished++;
+            running--;
+            seriesDone = queue.running == 0 && queue.tasks.isEmpty();
+            if (seriesDone) {
+                queues.remove(queue.name);
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (seriesDone) {
+            System.out.println("[INFO] Manga: " + queue.name + " | All " + queue.finished + " queued chapter(s) finished");
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package d1;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Per-host circuit breaker. After manga.breaker.failureThreshold consecutive transient
+ * failures the circuit opens and every worker waits instead of sending requests. When the
+ * open period ends a single trial request is let through: success closes the circuit, failure
+ * reopens it for twice as long (up to manga.breaker.maxOpenMs).
+ */
+public class CircuitBreaker {
+
+    private static final int FAILURE_THRESHOLD = Integer.getInteger("manga.breaker.failureThreshold", 8);
+    private static final long OPEN_MS = Long.getLong("manga.breaker.openMs", 15000);
+    private static final long MAX_OPEN_MS = Long.getLong("manga.breaker.maxOpenMs", 300000);
+
+    private enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String host;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openUntil = 0;
+    private long openDuration = OPEN_MS;
+    private boolean trialInFlight = false;
+
+    public CircuitBreaker(String host) {
+        this.host = host;
+    }
+
+    /**
+     * Blocks while the circuit is open
+     * @return true if the caller is the trial request of a half-open circuit
+     */
+    public boolean awaitPermission() throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                if (state == State.CLOSED) {
+                    return false;
+                }
+                if (state == State.OPEN) {
+                    long remaining = openUntil - System.currentTimeMillis();
+                    if (remaining > 0) {
+                        changed.await(remaining, TimeUnit.MILLISECONDS);
+                        continue;
+                    }
+                    state = State.HALF_OPEN;
+                }
+                if (!trialInFlight) {
+                    trialInFlight = true;
+                    return true;
+                }
+                changed.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void onSuccess(boolean trial) {
+        lock.lock();
+        try {
+            consecutiveFailures = 0;
+            if (trial) {
+                trialInFlight = false;
+            }
+            if (state != State.CLOSED) {
+                state = State.CLOSED;
+                openDuration = OPEN_MS;
+                System.out.println("[INFO] Circuit closed for " + host + ", resuming downloads");
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void onFailure(boolean trial) {
+        lock.lock();
+        try {
+            consecutiveFailures++;
+            if (trial) {
+                trialInFlight = false;
+                open();
+            } else if (state == State.CLOSED && consecutiveFailures >= FAILURE_THRESHOLD) {
+                open();
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Lets another request become the trial when the trial ended without an outcome
+     */
+    public void abandonTrial() {
+        lock.lock();
+        try {
+            trialInFlight = false;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openUntil = System.currentTimeMillis() + openDuration;
+        System.err.println("[WARN] Circuit open for " + host + " after " + consecutiveFailures
+                + " failures, pausing requests for " + openDuration / 1000 + "s");
+        openDuration = Math.min(MAX_OPEN_MS, openDuration * 2);
+    }
+}
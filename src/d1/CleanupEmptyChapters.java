@@ -1,82 +1,375 @@
 package d1;
 
-import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
+/**
+ * Scans the Mangas tree for empty and broken chapters. Series and their chapters are scanned in parallel
+ * on a fork-join pool sized by manga.cleanup.parallelism, and each chapter folder is walked once.
+ * Empty chapters and unfinished archives are deleted. Chapters with pages that are empty, not images or
+ * truncated, or with gaps in their page numbers, are reported; with --repair their bad pages (or the whole
+ * archive) are deleted and the chapter is dropped from the manifest, so the next run downloads it again.
+ */
 public class CleanupEmptyChapters {
-    
+
+    private static final String MANGAS_DIR = "Mangas";
+    private static final String CHAPTER_PREFIX = "Chapter ";
+    private static final int PARALLELISM = Integer.getInteger("manga.cleanup.parallelism",
+            Math.max(4, 2 * Runtime.getRuntime().availableProcessors()));
+
+    private final boolean repair;
+    private final AtomicInteger deletedChapters = new AtomicInteger();
+    private final AtomicInteger brokenChapters = new AtomicInteger();
+    private final AtomicInteger queuedChapters = new AtomicInteger();
+
+    /**
+     * What a scan found wrong with one chapter
+     */
+    private static final class ChapterReport {
+        final int chapter;
+        final Path path;
+        final List<String> badPages = new ArrayList<>();
+        final List<Path> badPagePaths = new ArrayList<>();
+        final TreeSet<Integer> pageNumbers = new TreeSet<>();
+        boolean deleted = false;
+
+        ChapterReport(int chapter, Path path) {
+            this.chapter = chapter;
+            this.path = path;
+        }
+
+        List<Integer> missingPages() {
+            List<Integer> missing = new ArrayList<>();
+            if (!pageNumbers.isEmpty()) {
+                for (int page = 1; page < pageNumbers.last(); page++) {
+                    if (!pageNumbers.contains(page)) {
+                        missing.add(page);
+                    }
+                }
+            }
+            return missing;
+        }
+
+        boolean isBroken() {
+            return !deleted && (!badPages.isEmpty() || !missingPages().isEmpty());
+        }
+    }
+
+    public CleanupEmptyChapters() {
+        this(false);
+    }
+
+    /**
+     * @param repair Delete the bad pages of broken chapters and queue the chapters for re-download
+     */
+    public CleanupEmptyChapters(boolean repair) {
+        this.repair = repair;
+    }
+
     public void cleanup() {
-        File mangasDir = new File("Mangas");
-        if (!mangasDir.exists() || !mangasDir.isDirectory()) {
+        Path mangasDir = Paths.get(MANGAS_DIR);
+        if (!Files.isDirectory(mangasDir)) {
             System.out.println("Mangas directory not found");
             return;
         }
 
-        // Get all manga series folders
-        File[] mangaSeries = mangasDir.listFiles();
-        if (mangaSeries != null) {
-            for (File series : mangaSeries) {
-                if (series.isDirectory()) {
-                    cleanupSeries(series);
-                }
+        List<Path> seriesDirs;
+        try (Stream<Path> entries = Files.list(mangasDir)) {
+            // Hidden folders such as the page store are not series
+            seriesDirs = entries.filter(Files::isDirectory)
+                    .filter(path -> !path.getFileName().toString().startsWith("."))
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            System.err.println("[ERROR] Failed to read " + MANGAS_DIR + " directory: " + e.getMessage());
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        ForkJoinPool pool = new ForkJoinPool(PARALLELISM);
+        try {
+            // Parallel streams started inside the pool run on it, so chapters of every series share its workers
+            pool.submit(() -> seriesDirs.parallelStream().forEach(this::cleanupSeries)).join();
+        } finally {
+            pool.shutdown();
+        }
+
+        System.out.println("[INFO] Cleanup of " + seriesDirs.size() + " series finished in " + (System.currentTimeMillis() - start)
+                + " ms | " + deletedChapters.get() + " empty chapter(s) deleted, " + brokenChapters.get() + " broken chapter(s) found"
+                + (repair ? ", " + queuedChapters.get() + " queued for re-download" : ""));
+        if (!repair && brokenChapters.get() > 0) {
+            System.out.println("[INFO] Run with --repair to queue broken chapters for re-download");
+        }
+    }
+
+    private void cleanupSeries(Path seriesDir) {
+        System.out.println("Checking series: " + seriesDir.getFileName());
+
+        List<Path> chapterEntries;
+        try (Stream<Path> entries = Files.list(seriesDir)) {
+            chapterEntries = entries.collect(Collectors.toList());
+        } catch (IOException e) {
+            System.err.println("[ERROR] Failed to list " + seriesDir + ": " + e.getMessage());
+            return;
+        }
+
+        List<ChapterReport> broken = chapterEntries.parallelStream()
+                .map(this::checkChapterEntry)
+                .filter(report -> report != null && report.isBroken())
+                .collect(Collectors.toList());
+        for (ChapterReport report : broken) {
+            printBrokenChapter(seriesDir, report);
+        }
+        brokenChapters.addAndGet(broken.size());
+        if (repair) {
+            broken.forEach(this::deleteBadPages);
+        }
+
+        // Bring the manifest back in line with what is left on disk
+        LibraryManifest.Series manifest = LibraryManifest.rebuild(seriesDir);
+        if (repair && !broken.isEmpty()) {
+            for (ChapterReport report : broken) {
+                manifest.forgetChapter(report.chapter);
             }
+            manifest.save();
+            queuedChapters.addAndGet(broken.size());
+        }
+    }
+
+    /**
+     * Checks one entry of a series folder
+     * @return What was found, or null for entries that are not chapters
+     */
+    private ChapterReport checkChapterEntry(Path entry) {
+        String fileName = entry.getFileName().toString();
+        if (Files.isDirectory(entry)) {
+            return checkChapterFolder(entry);
+        } else if (fileName.endsWith(ChapterArchive.EXTENSION)) {
+            return checkArchive(entry);
+        } else if (fileName.endsWith(ChapterArchive.EXTENSION + ".part")) {
+            // Left behind by an interrupted run; the next download starts a new archive anyway
+            System.out.println("Deleting unfinished archive: " + fileName + " from " + entry.getParent().getFileName());
+            entry.toFile().delete();
         }
+        return null;
     }
 
-    private void cleanupSeries(File seriesDir) {
-        System.out.println("Checking series: " + seriesDir.getName());
-        
-        // Get all chapter folders
-        File[] chapters = seriesDir.listFiles();
-        if (chapters != null) {
-            for (File chapter : chapters) {
-                if (chapter.isDirectory()) {
-                    checkAndDeleteEmptyChapter(chapter);
+    /**
+     * Walks a chapter folder once, checking its pages on the way and deleting it if it holds no files.
+     * Hidden staging folders of archived chapters are only checked for being empty.
+     */
+    private ChapterReport checkChapterFolder(Path chapterDir) {
+        String folderName = chapterDir.getFileName().toString();
+        boolean isChapter = folderName.startsWith(CHAPTER_PREFIX);
+        ChapterReport report = new ChapterReport(isChapter ? chapterNumber(folderName) : -1, chapterDir);
+
+        // Files found below each directory still being visited
+        Deque<int[]> fileCounts = new ArrayDeque<>();
+        try {
+            Files.walkFileTree(chapterDir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    fileCounts.push(new int[1]);
+                    return FileVisitResult.CONTINUE;
                 }
-            }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    fileCounts.peek()[0]++;
+                    if (isChapter && fileCounts.size() == 1 && attrs.isRegularFile()) {
+                        checkPage(report, file, attrs.size());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                    int files = fileCounts.pop()[0];
+                    if (files == 0) {
+                        Files.delete(dir);
+                        if (dir.equals(chapterDir)) {
+                            report.deleted = true;
+                        }
+                    } else if (!fileCounts.isEmpty()) {
+                        fileCounts.peek()[0] += files;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("[WARN] Could not check " + chapterDir + ": " + e.getMessage());
+            return null;
         }
+
+        if (report.deleted) {
+            deletedChapters.incrementAndGet();
+            System.out.println("Deleting empty chapter: " + folderName + " from " + chapterDir.getParent().getFileName());
+        }
+        return isChapter && report.chapter >= 0 ? report : null;
     }
 
-    private void checkAndDeleteEmptyChapter(File chapterDir) {
-        if (!hasFiles(chapterDir)) {
-            System.out.println("Deleting empty chapter: " + chapterDir.getName() + " from " + chapterDir.getParentFile().getName());
-            deleteDirectory(chapterDir);
+    private static void checkPage(ChapterReport report, Path page, long size) {
+        String fileName = page.getFileName().toString();
+        if (fileName.startsWith(".")) {
+            return;
+        }
+        addPageNumber(report, fileName);
+        try {
+            String problem = size == 0 ? "empty" : PageIntegrity.check(page);
+            if (problem != null) {
+                report.badPages.add(fileName + " (" + problem + ")");
+                report.badPagePaths.add(page);
+            }
+        } catch (IOException e) {
+            report.badPages.add(fileName + " (unreadable)");
+            report.badPagePaths.add(page);
         }
     }
 
     /**
-     * Recursively checks if a directory or any of its subdirectories contain files
-     * @param directory The directory to check
-     * @return true if the directory contains files, false otherwise
+     * Deletes a chapter archive that has no pages or whose central directory cannot be read,
+     * and checks the pages of any other archive
      */
-    private boolean hasFiles(File directory) {
-        File[] contents = directory.listFiles();
-        if (contents == null || contents.length == 0) {
-            return false;
+    private ChapterReport checkArchive(Path archive) {
+        int chapter = ChapterArchive.chapterNumber(archive);
+        if (chapter < 0) {
+            return null;
+        }
+        ChapterReport report = new ChapterReport(chapter, archive);
+        String problem = null;
+        try (ZipFile zipFile = new ZipFile(archive.toFile())) {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory()) {
+                    addPageNumber(report, entry.getName());
+                    checkArchivedPage(report, zipFile, entry);
+                }
+            }
+            problem = report.pageNumbers.isEmpty() && report.badPages.isEmpty() ? "empty" : null;
+        } catch (IOException e) {
+            problem = "unreadable";
+        }
+        if (problem != null) {
+            System.out.println("Deleting " + problem + " archive: " + archive.getFileName() + " from " + archive.getParent().getFileName());
+            archive.toFile().delete();
+            report.deleted = true;
+        }
+        return report;
+    }
+
+    private static void checkArchivedPage(ChapterReport report, ZipFile zipFile, ZipEntry entry) {
+        String problem;
+        try (InputStream in = zipFile.getInputStream(entry)) {
+            problem = PageIntegrity.check(in, entry.getSize());
+        } catch (IOException e) {
+            problem = "unreadable";
+        }
+        if (problem != null) {
+            report.badPages.add(entry.getName() + " (" + problem + ")");
         }
+    }
+
+    private static void addPageNumber(ChapterReport report, String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        try {
+            report.pageNumbers.add(Integer.parseInt(dot > 0 ? fileName.substring(0, dot) : fileName));
+        } catch (NumberFormatException e) {
+            // Not a numbered page
+        }
+    }
 
-        for (File file : contents) {
-            if (file.isFile()) {
-                return true;
+    private static void printBrokenChapter(Path seriesDir, ChapterReport report) {
+        StringBuilder problems = new StringBuilder();
+        if (!report.badPages.isEmpty()) {
+            problems.append("bad pages: ").append(String.join(", ", report.badPages));
+        }
+        List<Integer> missing = report.missingPages();
+        if (!missing.isEmpty()) {
+            if (problems.length() > 0) {
+                problems.append("; ");
             }
-            if (file.isDirectory() && hasFiles(file)) {
-                return true;
+            problems.append("missing pages: ").append(formatRanges(missing));
+        }
+        System.out.println("[WARN] Manga: " + seriesDir.getFileName() + " | Chapter " + report.chapter + " | Broken, " + problems);
+    }
+
+    /**
+     * Deletes the bad pages of a broken chapter folder, or the whole archive since its pages cannot be replaced in place
+     */
+    private void deleteBadPages(ChapterReport report) {
+        try {
+            if (Files.isDirectory(report.path)) {
+                for (Path page : report.badPagePaths) {
+                    Files.deleteIfExists(page);
+                }
+            } else {
+                Files.deleteIfExists(report.path);
             }
+        } catch (IOException e) {
+            System.err.println("[WARN] Could not delete bad pages of " + report.path + ": " + e.getMessage());
         }
-        return false;
     }
 
-    private boolean deleteDirectory(File directory) {
-        File[] contents = directory.listFiles();
-        if (contents != null) {
-            for (File file : contents) {
-                deleteDirectory(file);
+    /**
+     * Formats page numbers as ranges, e.g. "3, 11-12"
+     */
+    private static String formatRanges(Collection<Integer> pages) {
+        StringBuilder ranges = new StringBuilder();
+        Integer rangeStart = null;
+        Integer previous = null;
+        for (int page : pages) {
+            if (previous != null && page == previous + 1) {
+                previous = page;
+                continue;
             }
+            appendRange(ranges, rangeStart, previous);
+            rangeStart = page;
+            previous = page;
+        }
+        appendRange(ranges, rangeStart, previous);
+        return ranges.toString();
+    }
+
+    private static void appendRange(StringBuilder ranges, Integer start, Integer end) {
+        if (start == null) {
+            return;
+        }
+        if (ranges.length() > 0) {
+            ranges.append(", ");
+        }
+        ranges.append(start.equals(end) ? String.valueOf(start) : start + "-" + end);
+    }
+
+    private static int chapterNumber(String folderName) {
+        try {
+            return Integer.parseInt(folderName.substring(CHAPTER_PREFIX.length()).trim());
+        } catch (NumberFormatException e) {
+            return -1;
         }
-        return directory.delete();
     }
 
     public static void main(String[] args) {
-        CleanupEmptyChapters cleanup = new CleanupEmptyChapters();
+        boolean repair = args.length > 0 && args[0].equals("--repair");
+        CleanupEmptyChapters cleanup = new CleanupEmptyChapters(repair);
         cleanup.cleanup();
     }
 }
@@ -0,0 +1,101 @@
+package d1;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time budget for a run or a chapter, checked by every request made under it.
+ * The current deadline is inherited by threads started under it, so the page downloads of a chapter see the
+ * chapter's deadline without passing it along. Requests clamp their first-byte timeout to the remaining
+ * budget, a body that is still streaming when the budget runs out is closed by HttpEngine's watchdog, and
+ * retries stop once it has expired. A chapter deadline never outlasts the run deadline it was started under.
+ * Configured with manga.deadline.runMinutes (default 0) and manga.deadline.chapterMinutes (default 30);
+ * 0 means no limit. A chapter still downloading after 30 minutes is therefore aborted and left incomplete
+ * for the next run; set manga.deadline.chapterMinutes=0 for very long chapters on slow connections.
+ */
+public final class Deadline {
+
+    private static final long RUN_MINUTES = Long.getLong("manga.deadline.runMinutes", 0);
+    private static final long CHAPTER_MINUTES = Long.getLong("manga.deadline.chapterMinutes", 30);
+
+    private static final Deadline NONE = new Deadline(Long.MAX_VALUE, null);
+    private static final InheritableThreadLocal<Deadline> current = new InheritableThreadLocal<>() {
+        @Override
+        protected Deadline initialValue() {
+            return NONE;
+        }
+    };
+
+    private final long expiresAtNanos;
+    private final Deadline parent;
+    private volatile boolean cancelled = false;
+
+    private Deadline(long expiresAtNanos, Deadline parent) {
+        this.expiresAtNanos = expiresAtNanos;
+        this.parent = parent;
+    }
+
+    /**
+     * Returns the deadline of the calling thread
+     */
+    public static Deadline current() {
+        return current.get();
+    }
+
+    /**
+     * Starts the run deadline on the calling thread; threads it starts afterwards inherit it
+     */
+    public static void startRun() {
+        current.set(RUN_MINUTES > 0 ? new Deadline(System.nanoTime() + TimeUnit.MINUTES.toNanos(RUN_MINUTES), null) : NONE);
+    }
+
+    /**
+     * Runs a chapter download under a chapter deadline nested in the current one.
+     * If the calling thread is interrupted, the deadline is cancelled so page downloads still in flight stop too.
+     */
+    public static void runChapter(Runnable task) {
+        Deadline outer = current();
+        Deadline chapter = CHAPTER_MINUTES > 0
+                ? new Deadline(Math.min(outer.expiresAtNanos, System.nanoTime() + TimeUnit.MINUTES.toNanos(CHAPTER_MINUTES)), outer)
+                : new Deadline(outer.expiresAtNanos, outer);
+        current.set(chapter);
+        try {
+            task.run();
+        } finally {
+            if (Thread.currentThread().isInterrupted()) {
+                chapter.cancel();
+            }
+            current.set(outer);
+        }
+    }
+
+    /**
+     * Expires the deadline now, along with every request running under it
+     */
+    public void cancel() {
+        if (this != NONE) {
+            cancelled = true;
+        }
+    }
+
+    public boolean isExpired() {
+        if (cancelled) {
+            return true;
+        }
+        if (expiresAtNanos != Long.MAX_VALUE && System.nanoTime() - expiresAtNanos >= 0) {
+            return true;
+        }
+        return parent != null && parent.isExpired();
+    }
+
+    /**
+     * Returns the shorter of a timeout and the time left, at least one millisecond
+     */
+    public Duration clamp(Duration timeout) {
+        if (expiresAtNanos == Long.MAX_VALUE) {
+            return timeout;
+        }
+        long remaining = Math.max(TimeUnit.MILLISECONDS.toNanos(1), expiresAtNanos - System.nanoTime());
+        return remaining < timeout.toNanos() ? Duration.ofNanos(remaining) : timeout;
+    }
+}
@@ -0,0 +1,76 @@
+package d1;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * One-off pass that moves an existing Mangas tree into the page store.
+ * Pages are hashed in parallel and every duplicate is replaced by a hard link to a single stored copy.
+ * Blobs no page links to any more are removed at the end.
+ */
+public class DedupPages {
+    private static final String MANGAS_DIR = "Mangas";
+
+    public static void main(String[] args) {
+        Path mangasDir = Paths.get(MANGAS_DIR);
+        if (!Files.isDirectory(mangasDir)) {
+            System.err.println("[ERROR] " + MANGAS_DIR + " directory not found");
+            return;
+        }
+        PageStore.enable();
+
+        List<Path> pages;
+        try (Stream<Path> files = Files.walk(mangasDir)) {
+            pages = files.filter(Files::isRegularFile)
+                    .filter(DedupPages::isPage)
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            System.err.println("[ERROR] Failed to scan " + MANGAS_DIR + ": " + e.getMessage());
+            return;
+        }
+        System.out.println("Deduplicating " + pages.size() + " page(s)...");
+
+        AtomicInteger failed = new AtomicInteger();
+        long start = System.currentTimeMillis();
+        pages.parallelStream().forEach(page -> {
+            try {
+                PageStore.link(page, PageStore.hash(page));
+            } catch (IOException e) {
+                failed.incrementAndGet();
+                System.err.println("[WARN] Could not deduplicate " + page + ": " + e.getMessage());
+            }
+        });
+
+        try {
+            int pruned = PageStore.pruneOrphans();
+            if (pruned > 0) {
+                System.out.println("[INFO] Removed " + pruned + " unused blob(s) from the page store");
+            }
+        } catch (IOException e) {
+            System.err.println("[WARN] Could not prune the page store: " + e.getMessage());
+        }
+
+        System.out.println("[INFO] Deduplication finished in " + (System.currentTimeMillis() - start) + " ms, "
+                + failed.get() + " page(s) failed");
+        PageStore.printSummary();
+    }
+
+    /**
+     * Returns true for page files inside chapter folders, skipping the store and hidden files
+     */
+    private static boolean isPage(Path file) {
+        Path relative = Paths.get(MANGAS_DIR).relativize(file);
+        for (Path part : relative) {
+            if (part.toString().startsWith(".")) {
+                return false;
+            }
+        }
+        return relative.getNameCount() == 3;
+    }
+}
@@ -5,12 +5,17 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Downloads manga chapters from a list specified in a data file.
- * Each line in the file should contain: manga_name,number_of_chapters,format_digits
+ * Each line in the file should contain: manga_name,number_of_chapters,format_digits[,options...]
+ * The optional columns are described in SeriesOptions.
  */
 public class DownloadFromList extends DownloadManga {
+
+    // Upper bound for the whole list, now that all series download together
+    private static final long LIST_TIMEOUT_HOURS = 24;
     
     /**
      * Represents a manga entry from the data file
@@ -81,13 +86,14 @@ public class DownloadFromList extends DownloadManga {
      */
     private static MangaEntry parseMangaEntry(String line) {
         String[] values = line.trim().split(",");
-        if (values.length != 3) {
+        if (values.length < 3) {
             return null;
         }
 
         String name = values[0].trim();
         int chapters = Integer.parseInt(values[1].trim());
         String format = values[2].trim();
+        SeriesOptions.apply(name, values, 3);
 
         return new MangaEntry(name, chapters, format);
     }
@@ -97,26 +103,38 @@ public class DownloadFromList extends DownloadManga {
      */
     private static void processAllManga(List<MangaEntry> mangaList) {
         System.out.println("Found " + mangaList.size() + " manga entries to process");
-        
+
+        // Started before the workers so they inherit the run deadline
+        Deadline.startRun();
+        // Chapters of every series share one set of workers, so a long series does not hold up the rest of the list
+        ChapterScheduler scheduler = new ChapterScheduler("list", DownloadScheduler.getMaxChapters());
+        resumeInterrupted(scheduler);
         for (MangaEntry manga : mangaList) {
             try {
-                processSingleManga(manga);
+                processSingleManga(scheduler, manga);
             } catch (Exception e) {
                 System.err.println("[ERROR] Failed to process " + manga.name + ": " + e.getMessage());
             }
         }
+        try {
+            scheduler.awaitCompletion(LIST_TIMEOUT_HOURS, TimeUnit.HOURS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("[ERROR] Download operations were interrupted: " + e.getMessage());
+        }
         
         System.out.println("\nAll manga processing completed");
+        RunState.finish("download-from-list");
     }
 
     /**
-     * Processes a single manga entry
+     * Queues the chapters of a single manga entry
      */
-    private static void processSingleManga(MangaEntry manga) throws IOException {
+    private static void processSingleManga(ChapterScheduler scheduler, MangaEntry manga) {
         System.out.println("\nProcessing manga: " + manga.name);
         System.out.println("Chapters to download: " + manga.chapterAmount);
         
-        downloadManga(manga.name, manga.chapterAmount, manga.formatPattern);
+        queueManga(scheduler, manga.name, manga.chapterAmount, manga.formatPattern);
     }
 
     /**
@@ -2,13 +2,38 @@ package d1;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URL;
+import java.io.OutputStream;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.OpenOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class DownloadImage {
+    /**
+     * Outcome of revalidating a downloaded file
+     */
+    protected enum Revalidation { UNCHANGED, REPLACED, FAILED }
+
+    private static final String PART_SUFFIX = ".part";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes\\s+(\\d+)-(\\d+)/(?:(\\d+)|\\*)");
+    // Pages are checked while they stream in: Content-Type, magic bytes and end marker, see PageIntegrity
+    private static final boolean VALIDATE_PAGES = Boolean.parseBoolean(System.getProperty("manga.pages.validate", "true"));
+
     /**
      * Creates a folder if it doesn't exist
      * @param folderName The folder path to create
@@ -24,18 +49,371 @@ public class DownloadImage {
     }
 
     /**
-     * Downloads a file from URL
-     * @param url The URL to download from
+     * Downloads a file from URL into a hidden partial file and renames it into place once complete.
+     * Transient failures are retried with jittered exponential backoff, and a broken transfer is resumed
+     * with an HTTP Range request; the partial file is kept for the next run if all attempts fail.
+     * With the page store enabled the file is hashed while it streams in and deduplicated afterwards.
+     * Bodies that are not a complete image are rejected before the rename and retried like a broken transfer;
+     * a page rejected twice for the same bytes is FATAL, since the server has nothing else to send.
+     * @param url The canonical URL, for logs
+     * @param mirrors The file's URL on each mirror, best first
      * @param outputPath The path where to save the file
-     * @return true if download was successful, false otherwise
+     * @return FOUND if the file was saved, NOT_FOUND only for a definite 404/410
+     */
+    private static DownloadResult readFile(String url, List<String> mirrors, Path outputPath) {
+        PageDownloadEvent event = new PageDownloadEvent();
+        event.begin();
+        long start = System.nanoTime();
+
+        DownloadResult result = readFileWithRetries(url, mirrors, outputPath, event);
+
+        if (Metrics.isEnabled()) {
+            Metrics.recordNanos("page.download", System.nanoTime() - start);
+            Metrics.increment("page.result." + result);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.url = url;
+            event.result = result.name();
+            event.bytes = result == DownloadResult.FOUND ? outputPath.toFile().length() : 0;
+            event.commit();
+        }
+        return result;
+    }
+
+    /**
+     * Downloads from the page's mirrors, best first. A failed attempt is retried starting with the next mirror,
+     * and a 404 from one mirror moves on to the next without counting as an attempt; the page is NOT_FOUND
+     * only once every mirror answered 404.
+     */
+    private static DownloadResult readFileWithRetries(String url, List<String> mirrors, Path outputPath, PageDownloadEvent event) {
+        Path partPath = partPathFor(outputPath);
+        String lastError = null;
+        String lastRejection = null;
+        Set<String> notFoundOn = new HashSet<>();
+        int firstMirror = 0;
+        boolean retry = false;
+
+        for (int attempt = 1; attempt <= RetryPolicy.MAX_ATTEMPTS; attempt++) {
+            event.attempts = attempt;
+            try {
+                if (retry) {
+                    Metrics.increment("request.retries");
+                    RetryPolicy.backoff(attempt - 1);
+                }
+                if (Deadline.current().isExpired()) {
+                    System.err.println("[WARN] Deadline exceeded, giving up on " + url + (lastError != null ? " after: " + lastError : ""));
+                    return DownloadResult.TRANSIENT;
+                }
+                List<String> order = new ArrayList<>();
+                for (int i = 0; i < mirrors.size(); i++) {
+                    String mirrorUrl = mirrors.get((firstMirror + i) % mirrors.size());
+                    if (!notFoundOn.contains(mirrorUrl)) {
+                        order.add(mirrorUrl);
+                    }
+                }
+                MessageDigest digest = PageStore.isEnabled() ? PageStore.newDigest() : null;
+                HttpResponse<?> response;
+                try (DownloadScheduler.Permit permit = DownloadScheduler.acquireRequest(order.get(0))) {
+                    response = transferToPart(url, order, partPath, permit, digest);
+                }
+
+                DownloadResult result = DownloadResult.fromStatus(response.statusCode());
+                if (result == DownloadResult.FOUND) {
+                    moveIntoPlace(partPath, outputPath);
+                    PageValidators.record(outputPath, response);
+                    linkToStore(outputPath, digest);
+                    return result;
+                }
+                if (result == DownloadResult.NOT_FOUND) {
+                    String answered = requestedUrl(response);
+                    notFoundOn.add(mirrors.contains(answered) ? answered : order.get(0));
+                    if (notFoundOn.size() < mirrors.size()) {
+                        // The mirror may lag behind the others
+                        attempt--;
+                        retry = false;
+                        continue;
+                    }
+                }
+                if (result != DownloadResult.TRANSIENT) {
+                    return result;
+                }
+                lastError = "HTTP " + response.statusCode();
+            } catch (RejectedPageException e) {
+                if (e.signature.equals(lastRejection)) {
+                    Metrics.increment("page.rejectedRepeatedly");
+                    System.err.println("[ERROR] " + e.getMessage() + ", the same body was served again; giving up on the page");
+                    return DownloadResult.FATAL;
+                }
+                lastRejection = e.signature;
+                lastError = e.getMessage();
+            } catch (IOException e) {
+                lastError = e.getMessage();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                System.err.println("[ERROR] Download was interrupted: " + url);
+                return DownloadResult.TRANSIENT;
+            }
+            firstMirror++;
+            retry = true;
+        }
+        System.err.println("[ERROR] Failed to read file from URL after " + RetryPolicy.MAX_ATTEMPTS + " attempts: " + lastError);
+        return DownloadResult.TRANSIENT;
+    }
+
+    /**
+     * Returns the URL that was requested for a response, before any redirect
+     */
+    private static String requestedUrl(HttpResponse<?> response) {
+        while (response.previousResponse().isPresent()) {
+            response = response.previousResponse().get();
+        }
+        return response.request().uri().toString();
+    }
+
+    /**
+     * Transfers the response body into the partial file, continuing from its current length
+     * @param mirrorUrls The page on each mirror to try, hedged if the first is slow
+     * @return The response; for 200/206 the partial file then holds the whole body
+     * @throws IOException if the transfer breaks off; bytes received so far stay in the partial file
+     */
+    private static HttpResponse<?> transferToPart(String url, List<String> mirrorUrls, Path partPath, DownloadScheduler.Permit permit,
+            MessageDigest digest) throws IOException, InterruptedException {
+        long existing = Files.exists(partPath) ? Files.size(partPath) : 0;
+        List<HttpRequest> requests = new ArrayList<>();
+        for (String mirrorUrl : mirrorUrls) {
+            HttpRequest.Builder request = HttpEngine.newRequest(mirrorUrl).GET();
+            if (existing > 0) {
+                request.header("Range", "bytes=" + existing + "-");
+            }
+            requests.add(request.build());
+        }
+
+        HttpResponse<InputStream> response = HttpEngine.sendHedged(requests, permit);
+        try (InputStream inputStream = HttpEngine.guard(response.body())) {
+            int status = response.statusCode();
+            if (status == 416) {
+                // Partial file no longer matches the remote one, start over
+                Files.deleteIfExists(partPath);
+                throw new IOException("Range not satisfiable for " + url);
+            }
+            if (status == 200 || status == 206) {
+                writeToPart(url, response, inputStream, partPath, existing, digest);
+            } else if (DownloadResult.fromStatus(status) != DownloadResult.TRANSIENT) {
+                // Keep received bytes across transient errors only
+                Files.deleteIfExists(partPath);
+            }
+            return response;
+        }
+    }
+
+    /**
+     * Writes a 200 or 206 response body into the partial file and checks the resulting length
+     * @param existing Number of bytes already in the partial file that a 206 response continues from
+     * @param digest Digest fed with the whole file content, or null
+     */
+    private static void writeToPart(String url, HttpResponse<?> response, InputStream inputStream, Path partPath,
+            long existing, MessageDigest digest) throws IOException, InterruptedException {
+        boolean resumed = response.statusCode() == 206;
+        if (resumed && contentRangeStart(response) != existing) {
+            Files.deleteIfExists(partPath);
+            throw new IOException("Unexpected Content-Range for " + url);
+        }
+        long expectedLength = expectedLength(response);
+        PageIntegrity.Checker checker = VALIDATE_PAGES ? startCheck(url, response, partPath, resumed, expectedLength) : null;
+        if (digest != null && resumed) {
+            // Only the tail streams in, the bytes kept from the earlier attempt are hashed from disk
+            PageStore.update(digest, partPath);
+        }
+
+        OpenOption[] options = resumed
+                ? new OpenOption[]{StandardOpenOption.CREATE, StandardOpenOption.APPEND}
+                : new OpenOption[]{StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE};
+        long transferStart = System.nanoTime();
+        long received = 0;
+        String problem = null;
+        try (OutputStream outputStream = Files.newOutputStream(partPath, options)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                if (checker != null) {
+                    checker.update(buffer, 0, read);
+                    // Stop before writing anything once the first bytes show this is no image
+                    if (received < PageIntegrity.HEAD_BYTES && (problem = checker.checkHead()) != null) {
+                        break;
+                    }
+                }
+                received += read;
+                RateLimiter.acquireBytes(read);
+                outputStream.write(buffer, 0, read);
+                if (digest != null) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+        } finally {
+            Metrics.recordNanos("page.transfer", System.nanoTime() - transferStart);
+            Metrics.add("bytes.received", received);
+        }
+
+        long actualLength = Files.size(partPath);
+        if (problem == null && expectedLength >= 0 && actualLength != expectedLength) {
+            throw new IOException("Incomplete transfer of " + url + ": " + actualLength + " of " + expectedLength + " bytes");
+        }
+        if (problem == null && checker != null && (problem = checker.finish()) != null) {
+            // The whole body arrived, so the same file served again has the same fingerprint
+            problem += " (" + actualLength + " bytes, fingerprint " + Long.toHexString(checker.fingerprint()) + ")";
+        }
+        if (problem != null) {
+            reject(url, partPath, problem);
+        }
+    }
+
+    /**
+     * Checks the response headers of a page before its body is written and starts the check of its content
+     * @return Checker to feed the body to
+     * @throws IOException if the headers already show the response is no usable page
+     */
+    private static PageIntegrity.Checker startCheck(String url, HttpResponse<?> response, Path partPath, boolean resumed,
+            long expectedLength) throws IOException {
+        String contentType = response.headers().firstValue("Content-Type").orElse(null);
+        if (!PageIntegrity.isImageContentType(contentType)) {
+            reject(url, partPath, "Content-Type " + contentType);
+        }
+        if (expectedLength == 0) {
+            reject(url, partPath, "empty");
+        }
+        // A resumed transfer continues a file whose start was checked by the earlier attempt
+        return resumed ? PageIntegrity.Checker.resume(partPath) : new PageIntegrity.Checker();
+    }
+
+    /**
+     * Deletes the partial file of a page that failed validation; the exception sends the page to retry
+     * @param problem What is wrong with the page; equal for the same body served again
      */
-    private static boolean readFile(String url, Path outputPath) {
-        try (InputStream inputStream = new URL(url).openStream()) {
-            Files.copy(inputStream, outputPath, StandardCopyOption.REPLACE_EXISTING);
-            return true;
+    private static void reject(String url, Path partPath, String problem) throws IOException {
+        Metrics.increment("page.rejected");
+        Files.deleteIfExists(partPath);
+        throw new RejectedPageException("Rejected " + url + ": " + problem, problem);
+    }
+
+    /**
+     * A response that arrived whole but is no usable page
+     */
+    private static final class RejectedPageException extends IOException {
+        private static final long serialVersionUID = 1L;
+        final String signature;
+
+        RejectedPageException(String message, String signature) {
+            super(message);
+            this.signature = signature;
+        }
+    }
+
+    /**
+     * Checks a downloaded file against the server with a conditional GET and replaces it only if it changed.
+     * Files without stored validators are checked with their modification time.
+     * @param url The URL the file was downloaded from
+     * @param outputPath The downloaded file
+     * @return Whether the file was unchanged, replaced, or could not be checked
+     */
+    protected static Revalidation revalidate(String url, Path outputPath) {
+        Path partPath = partPathFor(outputPath);
+        HttpRequest.Builder request = HttpEngine.newRequest(url).GET();
+        PageValidators.Validator validator = PageValidators.get(outputPath);
+        if (validator != null && validator.etag != null) {
+            request.header("If-None-Match", validator.etag);
+        }
+
+        try {
+            String lastModified = validator != null && validator.lastModified != null
+                    ? validator.lastModified
+                    : DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                            Files.getLastModifiedTime(outputPath).toInstant().atZone(ZoneOffset.UTC));
+            request.header("If-Modified-Since", lastModified);
+
+            MessageDigest digest = PageStore.isEnabled() ? PageStore.newDigest() : null;
+            HttpResponse<InputStream> response;
+            try (DownloadScheduler.Permit permit = DownloadScheduler.acquireRequest(url)) {
+                response = HttpEngine.send(request.build(), HttpResponse.BodyHandlers.ofInputStream(), permit);
+                try (InputStream inputStream = HttpEngine.guard(response.body())) {
+                    if (response.statusCode() == 304) {
+                        return Revalidation.UNCHANGED;
+                    }
+                    if (response.statusCode() != 200) {
+                        System.err.println("[WARN] Revalidation of " + url + " returned HTTP " + response.statusCode());
+                        return Revalidation.FAILED;
+                    }
+                    Files.deleteIfExists(partPath);
+                    writeToPart(url, response, inputStream, partPath, 0, digest);
+                }
+            }
+
+            // Servers that ignore conditional headers send the whole page again
+            PageValidators.record(outputPath, response);
+            if (Files.mismatch(partPath, outputPath) == -1) {
+                Files.delete(partPath);
+                return Revalidation.UNCHANGED;
+            }
+            moveIntoPlace(partPath, outputPath);
+            linkToStore(outputPath, digest);
+            return Revalidation.REPLACED;
+        } catch (IOException e) {
+            System.err.println("[ERROR] Failed to revalidate " + url + ": " + e.getMessage());
+            return Revalidation.FAILED;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("[ERROR] Revalidation was interrupted: " + url);
+            return Revalidation.FAILED;
+        }
+    }
+
+    private static Path partPathFor(Path outputPath) {
+        return outputPath.resolveSibling("." + outputPath.getFileName() + PART_SUFFIX);
+    }
+
+    /**
+     * Returns the first byte position of a 206 response, or -1 if the header is missing or malformed
+     */
+    private static long contentRangeStart(HttpResponse<?> response) {
+        // Content-Range: bytes 1000-4999/5000
+        Matcher matcher = CONTENT_RANGE.matcher(response.headers().firstValue("Content-Range").orElse(""));
+        return matcher.matches() ? Long.parseLong(matcher.group(1)) : -1;
+    }
+
+    /**
+     * Returns the full length of the remote file, or -1 if the server did not report it
+     */
+    private static long expectedLength(HttpResponse<?> response) {
+        if (response.statusCode() == 206) {
+            Matcher matcher = CONTENT_RANGE.matcher(response.headers().firstValue("Content-Range").orElse(""));
+            return matcher.matches() && matcher.group(3) != null ? Long.parseLong(matcher.group(3)) : -1;
+        }
+        return response.headers().firstValueAsLong("Content-Length").orElse(-1L);
+    }
+
+    /**
+     * Deduplicates a downloaded file through the page store; the file stays as it is if that fails
+     * @param digest Digest of the file content, or null if the store is disabled
+     */
+    private static void linkToStore(Path outputPath, MessageDigest digest) {
+        if (digest == null) {
+            return;
+        }
+        try {
+            PageStore.link(outputPath, digest);
         } catch (IOException e) {
-            System.err.println("[ERROR] Failed to read file from URL: " + e.getMessage());
-            return false;
+            System.err.println("[WARN] Could not deduplicate " + outputPath + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Renames a completed partial file to its final name
+     */
+    private static void moveIntoPlace(Path partPath, Path outputPath) throws IOException {
+        try {
+            Files.move(partPath, outputPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(partPath, outputPath, StandardCopyOption.REPLACE_EXISTING);
         }
     }
 
@@ -44,16 +422,42 @@ public class DownloadImage {
      * @param folderName The folder path where the image should be saved
      * @param fileName The name of the file to save
      * @param url The URL to download the image from
-     * @return true if download was successful, false otherwise
+     * @return FOUND if the image was saved, NOT_FOUND if the server has no such image
+     *         (possibly remembered from an earlier run), TRANSIENT or FATAL if the download failed
+     */
+    public static DownloadResult download(String folderName, String fileName, String url) {
+        return download(folderName, fileName, url, List.of(url));
+    }
+
+    /**
+     * Downloads a page from the best of its mirrors and saves it to the specified folder
+     * @param folderName The folder path where the page should be saved
+     * @param fileName The name of the file to save
+     * @param page The page to download; see PageSources for how its mirrors are chosen
+     * @return FOUND if the page was saved, NOT_FOUND if no mirror has it (possibly remembered from an
+     *         earlier run), TRANSIENT or FATAL if the download failed
      */
-    public static boolean download(String folderName, String fileName, String url) {
+    public static DownloadResult download(String folderName, String fileName, PageRef page) {
+        return download(folderName, fileName, page.url(), PageSources.candidates(page));
+    }
+
+    private static DownloadResult download(String folderName, String fileName, String url, List<String> mirrors) {
+        if (NegativeCache.isMissing(NegativeCache.Kind.PAGE, url)) {
+            return DownloadResult.NOT_FOUND;
+        }
         try {
             Path folderPath = makeFolder(folderName);
             Path outputPath = folderPath.resolve(fileName);
-            return readFile(url, outputPath);
+            DownloadResult result = readFile(url, mirrors, outputPath);
+            if (result == DownloadResult.NOT_FOUND) {
+                NegativeCache.recordMissing(NegativeCache.Kind.PAGE, url);
+            } else if (result == DownloadResult.FOUND) {
+                NegativeCache.clear(NegativeCache.Kind.PAGE, url);
+            }
+            return result;
         } catch (IOException e) {
             System.err.println("[ERROR] Failed to download " + fileName + ": " + e.getMessage());
-            return false;
+            return DownloadResult.FATAL;
         }
     }
 }
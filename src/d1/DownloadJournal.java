@@ -0,0 +1,547 @@
+package d1;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Append-only journal of chapter downloads, so a run that is killed can be resumed where it stopped.
+ * Chapters are recorded when they are planned and started, pages when they are on disk, and chapters again
+ * when they are committed to the manifest or turn out not to exist. On startup the journal is replayed and
+ * only the uncommitted tail is kept: resumeInterrupted queues those chapters straight away, and their pages
+ * that are already on disk with the recorded size are not downloaded again.
+ * Records are written by one flusher thread; every write is followed by one fsync covering all records
+ * appended meanwhile, and chapter commits wait for it (group commit). The journal is rewritten with only
+ * the uncommitted chapters every manga.journal.compactRecords records and at the end of a run.
+ *
+ * File layout, Mangas/.journal, one tab-separated record per line:
+ *   P  &lt;series&gt;  &lt;chapter&gt;  &lt;format&gt;    planned
+ *   S  &lt;series&gt;  &lt;chapter&gt;              in flight
+ *   G  &lt;series&gt;  &lt;chapter&gt;  &lt;file&gt;  &lt;size&gt;   page on disk
+ *   R  &lt;series&gt;  &lt;chapter&gt;  &lt;file&gt;  &lt;new file&gt;  &lt;size&gt;   page replaced by a transcoded file
+ *   C  &lt;series&gt;  &lt;chapter&gt;              committed
+ *   D  &lt;series&gt;  &lt;chapter&gt;              dropped, nothing to download
+ */
+public final class DownloadJournal {
+
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("manga.journal", "true"));
+    private static final Path JOURNAL_FILE = Paths.get("Mangas", ".journal");
+    private static final long COMPACT_RECORDS = Long.getLong("manga.journal.compactRecords", 20000);
+    private static final String SEPARATOR = "\t";
+
+    private static final ReentrantLock lock = new ReentrantLock();
+    private static final Condition appended = lock.newCondition();
+    private static final Condition durable = lock.newCondition();
+
+    // Uncommitted chapters by "series#chapter", both replayed and from this run
+    private static final Map<String, ChapterState> live = new LinkedHashMap<>();
+    // Chapters planned during this run, so a replayed chapter is not queued a second time
+    private static final Set<String> plannedThisRun = ConcurrentHashMap.newKeySet();
+    private static final List<Task> replayed = new ArrayList<>();
+
+    private static StringBuilder buffer = new StringBuilder();
+    private static long appendedSeq = 0;
+    private static long durableSeq = 0;
+    private static long recordsSinceCompaction = 0;
+    private static FileChannel channel;
+    private static Thread flusher;
+    private static final AtomicLong fsyncs = new AtomicLong();
+    private static final AtomicLong resumedPages = new AtomicLong();
+
+    static {
+        if (ENABLED) {
+            open();
+        }
+    }
+
+    private DownloadJournal() {
+    }
+
+    /**
+     * A chapter that was planned or in flight when the previous run stopped
+     */
+    public static final class Task {
+        public final String name;
+        public final int chapter;
+        public final String format;
+
+        Task(String name, int chapter, String format) {
+            this.name = name;
+            this.chapter = chapter;
+            this.format = format;
+        }
+    }
+
+    private static final class ChapterState {
+        final String name;
+        final int chapter;
+        final String format;
+        boolean started;
+        final Map<String, Long> pages = new LinkedHashMap<>();
+
+        ChapterState(String name, int chapter, String format) {
+            this.name = name;
+            this.chapter = chapter;
+            this.format = format;
+        }
+    }
+
+    public static boolean isEnabled() {
+        return channel != null;
+    }
+
+    /**
+     * Returns the chapters left uncommitted by the previous run, in the order they were planned
+     */
+    public static List<Task> pending() {
+        return new ArrayList<>(replayed);
+    }
+
+    /**
+     * Records that a chapter is queued for download
+     * @return false if the chapter was already planned during this run
+     */
+    public static boolean plan(String name, int chapter, String format) {
+        String key = NegativeCache.chapterKey(name, chapter);
+        if (!plannedThisRun.add(key)) {
+            return false;
+        }
+        if (isEnabled()) {
+            lock.lock();
+            try {
+                if (!live.containsKey(key)) {
+                    live.put(key, new ChapterState(name, chapter, format));
+                    append("P", name, chapter, format);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Records that a chapter download started
+     */
+    public static void start(String name, int chapter, String format) {
+        plan(name, chapter, format);
+        if (!isEnabled()) {
+            return;
+        }
+        lock.lock();
+        try {
+            ChapterState state = live.get(NegativeCache.chapterKey(name, chapter));
+            if (state != null && !state.started) {
+                state.started = true;
+                append("S", name, chapter);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records a page that is completely on disk
+     */
+    public static void recordPage(String name, int chapter, String fileName, long size) {
+        if (!isEnabled()) {
+            return;
+        }
+        lock.lock();
+        try {
+            ChapterState state = live.get(NegativeCache.chapterKey(name, chapter));
+            if (state != null && !Long.valueOf(size).equals(state.pages.put(fileName, size))) {
+                append("G", name, chapter, fileName, Long.toString(size));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records that a page on disk was replaced by a transcoded file, whose name may have another extension
+     */
+    public static void renamePage(String name, int chapter, String fileName, String newFileName, long size) {
+        if (!isEnabled()) {
+            return;
+        }
+        lock.lock();
+        try {
+            ChapterState state = live.get(NegativeCache.chapterKey(name, chapter));
+            if (state != null && state.pages.remove(fileName) != null) {
+                state.pages.put(newFileName, size);
+                append("R", name, chapter, fileName, newFileName, Long.toString(size));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the file name of a page an interrupted run already downloaded, if it is still on disk unchanged
+     * @param page Page number without extension, e.g. "01"
+     */
+    public static String resumedPage(String name, int chapter, String page, Path folder) {
+        if (!isEnabled()) {
+            return null;
+        }
+        String fileName = null;
+        long size = -1;
+        lock.lock();
+        try {
+            ChapterState state = live.get(NegativeCache.chapterKey(name, chapter));
+            if (state == null) {
+                return null;
+            }
+            for (Map.Entry<String, Long> entry : state.pages.entrySet()) {
+                if (entry.getKey().startsWith(page + ".")) {
+                    fileName = entry.getKey();
+                    size = entry.getValue();
+                    break;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        try {
+            if (fileName != null && Files.size(folder.resolve(fileName)) == size) {
+                resumedPages.incrementAndGet();
+                return fileName;
+            }
+        } catch (IOException e) {
+            // Gone or unreadable, download it again
+        }
+        return null;
+    }
+
+    /**
+     * Records that a chapter is in the manifest, and waits until the record is on disk
+     */
+    public static void commit(String name, int chapter) {
+        finish("C", name, chapter, true);
+    }
+
+    /**
+     * Records that a chapter has nothing to download, e.g. because it does not exist
+     */
+    public static void drop(String name, int chapter) {
+        finish("D", name, chapter, false);
+    }
+
+    private static void finish(String type, String name, int chapter, boolean waitDurable) {
+        if (!isEnabled()) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (live.remove(NegativeCache.chapterKey(name, chapter)) == null) {
+                return;
+            }
+            long seq = append(type, name, chapter);
+            while (waitDurable && durableSeq < seq && channel != null) {
+                durable.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends a record to the write buffer; the caller holds the lock
+     * @return Sequence number of the record
+     */
+    private static long append(String type, String name, int chapter, String... fields) {
+        buffer.append(type).append(SEPARATOR).append(name).append(SEPARATOR).append(chapter);
+        for (String field : fields) {
+            buffer.append(SEPARATOR).append(field);
+        }
+        buffer.append('\n');
+        recordsSinceCompaction++;
+        appended.signal();
+        return ++appendedSeq;
+    }
+
+    /**
+     * Writes and fsyncs whatever was appended while the previous fsync ran
+     */
+    private static void flushLoop() {
+        while (true) {
+            String batch = null;
+            long batchSeq = 0;
+            FileChannel target = null;
+            lock.lock();
+            try {
+                while (buffer.length() == 0 && recordsSinceCompaction < COMPACT_RECORDS) {
+                    if (channel == null) {
+                        return;
+                    }
+                    appended.awaitUninterruptibly();
+                }
+                if (recordsSinceCompaction < COMPACT_RECORDS) {
+                    batch = buffer.toString();
+                    batchSeq = appendedSeq;
+                    buffer = new StringBuilder();
+                    target = channel;
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (batch == null) {
+                compact();
+                continue;
+            }
+
+            try {
+                ByteBuffer bytes = ByteBuffer.wrap(batch.getBytes(StandardCharsets.UTF_8));
+                while (bytes.hasRemaining()) {
+                    target.write(bytes);
+                }
+                target.force(false);
+                fsyncs.incrementAndGet();
+            } catch (IOException e) {
+                // A channel closed by a compaction is fine, the compacted journal already has these records
+                if (target.isOpen()) {
+                    System.err.println("[WARN] Failed to write " + JOURNAL_FILE + ": " + e.getMessage());
+                }
+            }
+
+            lock.lock();
+            try {
+                durableSeq = Math.max(durableSeq, batchSeq);
+                durable.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Rewrites the journal with only the uncommitted chapters.
+     * A committed chapter may only leave the journal once its manifest is on disk, so the manifests are saved
+     * between taking a snapshot of the uncommitted chapters and rewriting; the save runs without the lock,
+     * so pages and commits are not held up by it.
+     */
+    private static void compact() {
+        Map<String, ChapterState> snapshot = snapshot();
+        LibraryManifest.saveAll();
+        lock.lock();
+        try {
+            compactLocked(snapshot);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static Map<String, ChapterState> snapshot() {
+        lock.lock();
+        try {
+            return new LinkedHashMap<>(live);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the chapters still uncommitted plus those of the snapshot committed since, whose manifests
+     * may not have been saved yet; the caller holds the lock
+     */
+    private static void compactLocked(Map<String, ChapterState> snapshot) {
+        Map<String, ChapterState> kept = new LinkedHashMap<>(snapshot);
+        kept.putAll(live);
+        Path temp = JOURNAL_FILE.resolveSibling(JOURNAL_FILE.getFileName() + ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(temp)) {
+                for (ChapterState state : kept.values()) {
+                    writer.write(String.join(SEPARATOR, "P", state.name, Integer.toString(state.chapter), state.format));
+                    writer.newLine();
+                    if (state.started) {
+                        writer.write(String.join(SEPARATOR, "S", state.name, Integer.toString(state.chapter)));
+                        writer.newLine();
+                    }
+                    for (Map.Entry<String, Long> page : state.pages.entrySet()) {
+                        writer.write(String.join(SEPARATOR, "G", state.name, Integer.toString(state.chapter),
+                                page.getKey(), Long.toString(page.getValue())));
+                        writer.newLine();
+                    }
+                }
+            }
+            try (FileChannel tempChannel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                tempChannel.force(true);
+            }
+            channel.close();
+            try {
+                Files.move(temp, JOURNAL_FILE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, JOURNAL_FILE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            channel = FileChannel.open(JOURNAL_FILE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            System.err.println("[WARN] Failed to compact " + JOURNAL_FILE + ": " + e.getMessage());
+            try {
+                if (!channel.isOpen()) {
+                    channel = FileChannel.open(JOURNAL_FILE, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                }
+            } catch (IOException reopen) {
+                System.err.println("[ERROR] Journal disabled, could not reopen " + JOURNAL_FILE + ": " + reopen.getMessage());
+                channel = null;
+            }
+        }
+        // Everything buffered is already part of the live state that was just written
+        buffer = new StringBuilder();
+        durableSeq = appendedSeq;
+        recordsSinceCompaction = 0;
+        durable.signalAll();
+    }
+
+    /**
+     * Flushes pending records and compacts the journal, e.g. at the end of a run
+     */
+    public static void checkpoint() {
+        if (isEnabled()) {
+            compact();
+        }
+    }
+
+    /**
+     * Replays the journal and starts the flusher
+     */
+    private static void open() {
+        try {
+            Files.createDirectories(JOURNAL_FILE.getParent());
+            long records = replay();
+            channel = FileChannel.open(JOURNAL_FILE, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            if (records > 2L * liveRecords() + 1000) {
+                // Mostly committed history, e.g. after a run that was killed before its final compaction
+                compact();
+            }
+        } catch (IOException e) {
+            System.err.println("[WARN] Journal disabled, could not open " + JOURNAL_FILE + ": " + e.getMessage());
+            return;
+        }
+        flusher = new Thread(DownloadJournal::flushLoop, "journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    private static long liveRecords() {
+        long records = 0;
+        for (ChapterState state : live.values()) {
+            records += 2 + state.pages.size();
+        }
+        return records;
+    }
+
+    /**
+     * Folds the journal into the live chapter states
+     * @return Number of records read
+     */
+    private static long replay() throws IOException {
+        if (!Files.exists(JOURNAL_FILE)) {
+            return 0;
+        }
+        long records = 0;
+        try (BufferedReader reader = Files.newBufferedReader(JOURNAL_FILE)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                records++;
+                String[] fields = line.split(SEPARATOR);
+                try {
+                    applyRecord(fields);
+                } catch (RuntimeException e) {
+                    // Usually the torn last line of a run that was killed mid-write
+                    System.err.println("[WARN] Skipping invalid journal record: " + line);
+                }
+            }
+        }
+        for (ChapterState state : live.values()) {
+            replayed.add(new Task(state.name, state.chapter, state.format));
+        }
+        return records;
+    }
+
+    private static void applyRecord(String[] fields) {
+        String key = NegativeCache.chapterKey(fields[1], Integer.parseInt(fields[2]));
+        switch (fields[0]) {
+            case "P" -> live.putIfAbsent(key, new ChapterState(fields[1], Integer.parseInt(fields[2]), fields[3]));
+            case "S" -> {
+                ChapterState state = live.get(key);
+                if (state != null) {
+                    state.started = true;
+                }
+            }
+            case "G" -> {
+                ChapterState state = live.get(key);
+                if (state != null) {
+                    state.pages.put(fields[3], Long.parseLong(fields[4]));
+                }
+            }
+            case "R" -> {
+                ChapterState state = live.get(key);
+                if (state != null && state.pages.remove(fields[3]) != null) {
+                    state.pages.put(fields[4], Long.parseLong(fields[5]));
+                }
+            }
+            case "C", "D" -> live.remove(key);
+            default -> throw new IllegalArgumentException("Unknown record type " + fields[0]);
+        }
+    }
+
+    /**
+     * Flushes and compacts the journal and stops the flusher
+     */
+    public static void close() {
+        if (!isEnabled()) {
+            return;
+        }
+        Map<String, ChapterState> snapshot = snapshot();
+        LibraryManifest.saveAll();
+        lock.lock();
+        try {
+            compactLocked(snapshot);
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            System.err.println("[WARN] Failed to close " + JOURNAL_FILE + ": " + e.getMessage());
+        } finally {
+            channel = null;
+            appended.signalAll();
+            durable.signalAll();
+            lock.unlock();
+        }
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Prints what the journal resumed and how many fsyncs it took
+     */
+    public static void printSummary() {
+        if (ENABLED) {
+            System.out.println("[INFO] Journal: " + replayed.size() + " chapter(s) resumed, " + resumedPages.get()
+                    + " page(s) kept from interrupted runs, " + fsyncs.get() + " fsync(s)");
+        }
+    }
+}
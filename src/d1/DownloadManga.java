@@ -1,15 +1,24 @@
 package d1;
 
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 /**
  * Downloads manga chapters with parallel processing support.
+ * Chapters and pages run on virtual threads; DownloadScheduler bounds how many run at once.
  */
 public class DownloadManga extends DownloadImage {
 
@@ -17,10 +26,11 @@ public class DownloadManga extends DownloadImage {
     private static final String MANGAS_FOLDER = "Mangas";
     private static final String CHAPTER_PREFIX = "Chapter ";
     private static final String PAGE_FORMAT = "%02d";
-    private static final String[] SUPPORTED_FILE_TYPES = {".jpg", ".webp", ".png"};
-    private static final String BASE_URL = "https://zuragtnom.site//uploads/manga/";
-    private static final int MAX_THREADS = 10;
     private static final long DOWNLOAD_TIMEOUT_HOURS = 1;
+    private static final boolean PRESIZE_PAGE_WINDOW = Boolean.parseBoolean(System.getProperty("manga.pages.presize", "true"));
+
+    // Page count of the most recent chapter per manga, used to pre-size the page window
+    private static final Map<String, Integer> pageCountHints = new ConcurrentHashMap<>();
 
     /**
      * Downloads all chapters of a manga series
@@ -34,7 +44,85 @@ public class DownloadManga extends DownloadImage {
             return;
         }
 
+        LibraryManifest.Series manifest = loadManifest(mangaFolderPath);
+        manifest.setFormat(format);
+        ChapterFormats.seed(name, format, "Configured");
         downloadChaptersInParallel(name, chapterAmount, format, mangaFolderPath);
+        manifest.save();
+    }
+
+    /**
+     * Queues all chapters of a manga series on a scheduler shared with other series, without waiting for them
+     * @param scheduler Scheduler the chapter downloads run on
+     * @param name Manga name
+     * @param chapterAmount Number of chapters to download
+     * @param format Chapter number format (e.g., "%03d")
+     * @return Number of chapters queued
+     */
+    public static int queueManga(ChapterScheduler scheduler, String name, int chapterAmount, String format) {
+        Path mangaFolderPath = createMangaFolders(name);
+        if (mangaFolderPath == null) {
+            return 0;
+        }
+
+        LibraryManifest.Series manifest = loadManifest(mangaFolderPath);
+        manifest.setFormat(format);
+        ChapterFormats.seed(name, format, "Configured");
+
+        int queuedChapters = 0;
+        for (int i = 1; i <= chapterAmount; i++) {
+            int chapterIndex = i;
+            if (manifest.isChapterComplete(chapterIndex)) {
+                continue;
+            }
+            // Chapters resumed from the journal are already queued
+            if (DownloadJournal.plan(name, chapterIndex, format)) {
+                scheduler.submit(name, () -> downloadChapter(name, mangaFolderPath, chapterIndex, format));
+                queuedChapters++;
+            }
+        }
+        if (queuedChapters < chapterAmount) {
+            System.out.println("[INFO] Manga: " + name + " | Skipping " + (chapterAmount - queuedChapters) + " chapter(s) already downloaded or resumed");
+        }
+        return queuedChapters;
+    }
+
+    /**
+     * Queues the chapters an interrupted run left unfinished, as recorded in the download journal
+     * @return Number of chapters queued
+     */
+    public static int resumeInterrupted(ChapterScheduler scheduler) {
+        int resumedChapters = 0;
+        for (DownloadJournal.Task task : DownloadJournal.pending()) {
+            Path mangaFolderPath = createMangaFolders(task.name);
+            if (mangaFolderPath == null) {
+                continue;
+            }
+            if (loadManifest(mangaFolderPath).isChapterComplete(task.chapter)) {
+                // Completed, but the run was killed before the commit reached the journal
+                DownloadJournal.drop(task.name, task.chapter);
+                continue;
+            }
+            if (DownloadJournal.plan(task.name, task.chapter, task.format)) {
+                scheduler.submit(task.name, () -> downloadChapter(task.name, mangaFolderPath, task.chapter, task.format));
+                resumedChapters++;
+            }
+        }
+        if (resumedChapters > 0) {
+            System.out.println("[INFO] Resuming " + resumedChapters + " chapter(s) left unfinished by an interrupted run");
+        }
+        return resumedChapters;
+    }
+
+    /**
+     * Returns the manifest of a series, rebuilt from the chapters on disk if the series has none yet
+     */
+    private static LibraryManifest.Series loadManifest(Path mangaFolderPath) {
+        LibraryManifest.Series manifest = LibraryManifest.forSeries(mangaFolderPath);
+        if (!manifest.isLoadedFromDisk()) {
+            manifest = LibraryManifest.rebuild(mangaFolderPath);
+        }
+        return manifest;
     }
 
     /**
@@ -61,38 +149,196 @@ public class DownloadManga extends DownloadImage {
      * Sets up and manages parallel chapter downloads
      */
     private static void downloadChaptersInParallel(String name, int chapterAmount, String format, Path mangaFolderPath) {
-        int threadPoolSize = Math.min(Runtime.getRuntime().availableProcessors(), MAX_THREADS);
-        ExecutorService executor = Executors.newFixedThreadPool(threadPoolSize);
+        ExecutorService executor = DownloadScheduler.newScope("chapters-" + name);
+
+        LibraryManifest.Series manifest = LibraryManifest.forSeries(mangaFolderPath);
+        int skippedChapters = 0;
 
         try {
-            // Submit chapter download tasks
+            // Submit chapter download tasks, skipping chapters the manifest marks as complete
             for (int i = 1; i <= chapterAmount; i++) {
                 int chapterIndex = i;
+                if (manifest.isChapterComplete(chapterIndex)) {
+                    skippedChapters++;
+                    continue;
+                }
+                DownloadJournal.plan(name, chapterIndex, format);
                 executor.submit(() -> downloadChapter(name, mangaFolderPath, chapterIndex, format));
             }
+            if (skippedChapters > 0) {
+                System.out.println("[INFO] Manga: " + name + " | Skipping " + skippedChapters + " chapter(s) already downloaded");
+            }
+        } finally {
+            awaitCompletion(executor);
+        }
+    }
 
-            // Wait for completion
+    /**
+     * Waits for all submitted chapter tasks to finish
+     */
+    private static void awaitCompletion(ExecutorService executor) {
+        try {
             executor.shutdown();
             if (!executor.awaitTermination(DOWNLOAD_TIMEOUT_HOURS, TimeUnit.HOURS)) {
                 System.err.println("[WARN] Download operations exceeded timeout of " + DOWNLOAD_TIMEOUT_HOURS + " hour(s)");
+                // Interrupted chapters cancel their deadline, which closes the page downloads still streaming
+                executor.shutdownNow();
             }
         } catch (InterruptedException e) {
             System.err.println("[ERROR] Download operations were interrupted: " + e.getMessage());
+            executor.shutdownNow();
             Thread.currentThread().interrupt();
         }
     }
 
     /**
-     * Downloads a single chapter of a manga
+     * Revalidates every downloaded page of a manga with conditional requests, replacing only pages that changed
+     * @param name Manga name
+     */
+    public static void revalidateManga(String name) {
+        Path mangaFolderPath = Paths.get(MANGAS_FOLDER, name);
+        LibraryManifest.Series manifest = loadManifest(mangaFolderPath);
+        String format = manifest.getFormat() != null ? manifest.getFormat() : ChapterFormats.get(name, Integer.MAX_VALUE);
+        if (format == null) {
+            System.err.println("[WARN] Manga: " + name + " | Chapter format unknown, skipping revalidation");
+            return;
+        }
+
+        Map<Revalidation, AtomicInteger> results = new EnumMap<>(Revalidation.class);
+        for (Revalidation result : Revalidation.values()) {
+            results.put(result, new AtomicInteger());
+        }
+
+        ExecutorService executor = DownloadScheduler.newScope("revalidate-" + name);
+        LibraryManifest.Series seriesManifest = manifest;
+        try {
+            for (int chapterIndex : manifest.getCompletedChapters()) {
+                executor.submit(() -> revalidateChapter(name, mangaFolderPath, chapterIndex, format, seriesManifest, results));
+            }
+        } finally {
+            awaitCompletion(executor);
+        }
+        manifest.save();
+
+        System.out.println("[INFO] Manga: " + name + " | Revalidated pages: " + results.get(Revalidation.UNCHANGED) + " unchanged, "
+                + results.get(Revalidation.REPLACED) + " replaced, " + results.get(Revalidation.FAILED) + " failed");
+    }
+
+    /**
+     * Revalidates the pages of a single chapter
+     */
+    private static void revalidateChapter(String name, Path mangaFolderPath, int chapterIndex, String format,
+            LibraryManifest.Series manifest, Map<Revalidation, AtomicInteger> results) {
+        Path chapterPath = mangaFolderPath.resolve(CHAPTER_PREFIX + chapterIndex);
+        String chapter = String.format(ChapterFormats.getOrDefault(name, chapterIndex, format), chapterIndex);
+        if (Files.exists(ChapterArchive.archivePath(mangaFolderPath, chapterIndex))) {
+            System.out.println("[INFO] Manga: " + name + " | Chapter " + chapterIndex + " | Archived as .cbz, skipping revalidation");
+            return;
+        }
+
+        DownloadScheduler.Permit permit = awaitChapterSlot(name, chapterIndex, "Revalidation");
+        if (permit == null) {
+            return;
+        }
+        try {
+            revalidatePages(name, chapterPath, chapterIndex, chapter, manifest, results);
+        } finally {
+            permit.close();
+        }
+        PageValidators.flush(chapterPath);
+    }
+
+    private static void revalidatePages(String name, Path chapterPath, int chapterIndex, String chapter,
+            LibraryManifest.Series manifest, Map<Revalidation, AtomicInteger> results) {
+        for (String fileName : manifest.getPages(chapterIndex).keySet()) {
+            int extensionStart = fileName.lastIndexOf('.');
+            String url = pageRef(name, chapter, fileName.substring(0, extensionStart), fileName.substring(extensionStart)).url();
+            Path pagePath = chapterPath.resolve(fileName);
+            PageValidators.Validator validator = PageValidators.get(pagePath);
+            if (validator != null && validator.transcodedFrom != null) {
+                // Re-encoded pages never match the server's copy
+                continue;
+            }
+
+            Revalidation result = revalidate(url, pagePath);
+            results.get(result).incrementAndGet();
+            if (result == Revalidation.REPLACED) {
+                recordReplacedPage(manifest, chapterIndex, pagePath);
+                System.out.println("[INFO] Manga: " + name + " | Chapter " + chapterIndex + " | Replaced changed page " + fileName);
+            }
+        }
+    }
+
+    private static void recordReplacedPage(LibraryManifest.Series manifest, int chapterIndex, Path pagePath) {
+        try {
+            manifest.updatePage(chapterIndex, pagePath.getFileName().toString(), Files.size(pagePath));
+        } catch (IOException e) {
+            System.err.println("[WARN] Could not read size of " + pagePath + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Downloads a single chapter of a manga, into a page folder or a .cbz archive depending on manga.output.
+     * The chapter runs under its own Deadline, which every page request checks.
      */
     protected static void downloadChapter(String name, Path mangaFolderPath, int chapterIndex, String format) {
-        String chapter = String.format(format, chapterIndex);
+        Deadline.runChapter(() -> downloadChapterWithinDeadline(name, mangaFolderPath, chapterIndex, format));
+    }
+
+    private static void downloadChapterWithinDeadline(String name, Path mangaFolderPath, int chapterIndex, String format) {
+        LibraryManifest.Series manifest = LibraryManifest.forSeries(mangaFolderPath);
+        if (manifest.isChapterComplete(chapterIndex)) {
+            DownloadJournal.drop(name, chapterIndex);
+            return;
+        }
+        DownloadJournal.start(name, chapterIndex, format);
+
+        // A series that changed its numbering scheme uses a different format for later chapters
+        String chapter = String.format(ChapterFormats.getOrDefault(name, chapterIndex, format), chapterIndex);
         Path chapterPath = createChapterFolder(mangaFolderPath, chapterIndex);
         if (chapterPath == null) {
             return;
         }
 
-        downloadChapterPages(name, chapter, chapterPath.toString(), chapterIndex);
+        DownloadScheduler.Permit permit = awaitChapterSlot(name, chapterIndex, "Download");
+        if (permit == null) {
+            return;
+        }
+        try {
+            if (ChapterArchive.isEnabled()) {
+                try (ChapterArchive archive = ChapterArchive.create(mangaFolderPath, chapterIndex)) {
+                    downloadChapterPages(name, chapter, chapterPath.toString(), chapterIndex, manifest, archive);
+                } catch (IOException e) {
+                    System.err.println("[ERROR] Manga: " + name + " | Chapter " + chapterIndex + " | Could not create archive: " + e.getMessage());
+                }
+            } else {
+                downloadChapterPages(name, chapter, chapterPath.toString(), chapterIndex, manifest, null);
+            }
+        } finally {
+            permit.close();
+        }
+    }
+
+    /**
+     * Waits for one of the chapter slots, or returns null if the thread was interrupted while waiting
+     */
+    private static DownloadScheduler.Permit awaitChapterSlot(String name, int chapterIndex, String work) {
+        try {
+            return DownloadScheduler.acquireChapter();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("[ERROR] Manga: " + name + " | Chapter " + chapterIndex + " | " + work + " was interrupted");
+            return null;
+        }
+    }
+
+    /**
+     * Returns the folder pages of a chapter are downloaded into; a hidden staging folder when packaging archives
+     */
+    protected static Path chapterFolder(Path mangaFolderPath, int chapterIndex) {
+        return ChapterArchive.isEnabled()
+                ? ChapterArchive.stagingPath(mangaFolderPath, chapterIndex)
+                : mangaFolderPath.resolve(CHAPTER_PREFIX + chapterIndex);
     }
 
     /**
@@ -100,7 +346,7 @@ public class DownloadManga extends DownloadImage {
      */
     private static Path createChapterFolder(Path mangaFolderPath, int chapterIndex) {
         try {
-            Path chapterPath = mangaFolderPath.resolve(CHAPTER_PREFIX + chapterIndex);
+            Path chapterPath = chapterFolder(mangaFolderPath, chapterIndex);
             Files.createDirectories(chapterPath);
             return chapterPath;
         } catch (IOException e) {
@@ -110,41 +356,238 @@ public class DownloadManga extends DownloadImage {
     }
 
     /**
-     * Downloads all pages for a chapter
+     * Downloads all pages for a chapter, keeping several pages in flight
+     * @param archive Archive that finished pages are moved into, or null to keep them in the folder
      */
-    private static void downloadChapterPages(String name, String chapter, String folderPath, int chapterIndex) {
-        int pageNumber = 1;
-        int downloadedPages = 0;
-
-        while (true) {
-            String page = String.format(PAGE_FORMAT, pageNumber);
-            if (!downloadPage(name, chapter, page, folderPath, chapterIndex)) {
-                break;
+    private static void downloadChapterPages(String name, String chapter, String folderPath, int chapterIndex,
+            LibraryManifest.Series manifest, ChapterArchive archive) {
+        PageFetcher fetcher = new PageFetcher(pageNumber -> downloadPage(name, chapter,
+                String.format(PAGE_FORMAT, pageNumber), folderPath, chapterIndex, manifest, archive));
+        int expectedPages = PRESIZE_PAGE_WINDOW ? pageCountHints.getOrDefault(name, 0) : 0;
+        int downloadedPages = fetcher.fetchAll(expectedPages);
+        int failedPages = fetcher.getFailedPages();
+        if (downloadedPages > 0) {
+            ChapterFormats.confirm(name, chapterIndex, chapter);
+        }
+        if (downloadedPages > 0 && failedPages == 0 && commitArchive(archive, name, chapterIndex)) {
+            pageCountHints.put(name, downloadedPages);
+            manifest.completeChapter(chapterIndex);
+            DownloadJournal.commit(name, chapterIndex);
+            // A complete chapter is never probed again, so its page misses are not worth keeping
+            NegativeCache.clearPrefix(NegativeCache.Kind.PAGE, pageRef(name, chapter, "", "").url());
+            if (archive != null) {
+                deleteStagingFolder(Paths.get(folderPath));
             }
-            downloadedPages++;
-            pageNumber++;
+        }
+        if (archive == null) {
+            PageValidators.flush(Paths.get(folderPath));
+        } else {
+            // Archived pages are not revalidated
+            PageValidators.discard(Paths.get(folderPath));
+        }
+        if (downloadedPages == 0 && failedPages == 0) {
+            DownloadJournal.drop(name, chapterIndex);
         }
 
-        if (downloadedPages == 0) {
+        if (failedPages > 0) {
+            System.err.println("[WARN] Manga: " + name + " | Chapter " + chapterIndex + " | " + failedPages
+                    + " page(s) failed to download, chapter left incomplete for the next run");
+        } else if (downloadedPages == 0) {
             System.err.println("[WARN] Manga: " + name + " | Chapter " + chapterIndex + " | No pages found, chapter might not exist.");
         } else {
             System.out.println("[INFO] Manga: " + name + " | Chapter " + chapterIndex + " | Downloaded " + downloadedPages + " pages");
         }
     }
 
+    /**
+     * Finalizes the chapter archive, if any
+     * @return false if the archive could not be written, leaving the chapter incomplete
+     */
+    private static boolean commitArchive(ChapterArchive archive, String name, int chapterIndex) {
+        if (archive == null) {
+            return true;
+        }
+        try {
+            archive.commit();
+            return true;
+        } catch (IOException e) {
+            System.err.println("[ERROR] Manga: " + name + " | Chapter " + chapterIndex + " | Could not finalize archive: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Removes the staging folder of an archived chapter along with anything left in it
+     */
+    private static void deleteStagingFolder(Path stagingPath) {
+        try (Stream<Path> files = Files.walk(stagingPath)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            System.err.println("[WARN] Could not delete staging folder " + stagingPath + ": " + e.getMessage());
+        }
+    }
+
     /**
      * Attempts to download a single page in different file formats
      */
-    private static boolean downloadPage(String name, String chapter, String page, String folderPath, int chapterIndex) {
-        for (String fileType : SUPPORTED_FILE_TYPES) {
-            String url = BASE_URL + name + "/chapters/ch" + chapter + "/" + page + fileType;
-            String fileName = page + fileType;
+    private static DownloadResult downloadPage(String name, String chapter, String page, String folderPath, int chapterIndex,
+            LibraryManifest.Series manifest, ChapterArchive archive) {
+        String resumedFile = archive == null
+                ? DownloadJournal.resumedPage(name, chapterIndex, page, Paths.get(folderPath))
+                : stagedPage(Paths.get(folderPath), page);
+        boolean unverified = false;
+        if (resumedFile == null && archive == null) {
+            resumedFile = unverifiedPage(manifest, chapterIndex, page, Paths.get(folderPath));
+            unverified = resumedFile != null;
+        }
+        if (resumedFile != null) {
+            Path pagePath = Paths.get(folderPath, resumedFile);
+            recordPage(manifest, chapterIndex, pagePath);
+            if (unverified) {
+                DownloadJournal.recordPage(name, chapterIndex, resumedFile, pagePath.toFile().length());
+            }
+            return archivePage(archive, name, chapterIndex, pagePath) ? DownloadResult.FOUND : DownloadResult.FATAL;
+        }
+        long start = System.nanoTime();
+        PageResult pageResult = downloadPageAnyType(name, chapter, page, folderPath);
+        // Includes the extension probing, unlike page.download which covers a single URL
+        Metrics.recordNanos("page.anyType", System.nanoTime() - start);
+        if (pageResult.result == DownloadResult.FOUND) {
+            Path pagePath = Paths.get(folderPath, page + pageResult.fileType);
+            recordPage(manifest, chapterIndex, pagePath);
+            DownloadJournal.recordPage(name, chapterIndex, pagePath.getFileName().toString(), pagePath.toFile().length());
+            if (!archivePage(archive, name, chapterIndex, pagePath)) {
+                return DownloadResult.FATAL;
+            }
+            System.out.println("[INFO] Manga: " + name + " | Chapter " + chapterIndex + " | Downloaded page " + page + pageResult.fileType);
+            PageTranscoder.submit(name, manifest, chapterIndex, pagePath);
+        }
+        return pageResult.result;
+    }
+
+    /**
+     * Returns the file name of a page of an unverified chapter that is still on disk with its recorded size and
+     * passes the integrity check, so it is kept instead of downloaded again
+     */
+    private static String unverifiedPage(LibraryManifest.Series manifest, int chapterIndex, String page, Path folder) {
+        for (Map.Entry<String, Long> entry : manifest.getUnverifiedPages(chapterIndex).entrySet()) {
+            if (!entry.getKey().startsWith(page + ".")) {
+                continue;
+            }
+            Path pagePath = folder.resolve(entry.getKey());
+            try {
+                if (Files.size(pagePath) == entry.getValue() && PageIntegrity.check(pagePath) == null) {
+                    return entry.getKey();
+                }
+            } catch (IOException e) {
+                // Gone or unreadable, download it again
+            }
+            return null;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the file name of a page an earlier run left in the staging folder of an unfinished archive.
+     * Pages are only renamed into the folder once complete, so any file named after the page is whole.
+     */
+    private static String stagedPage(Path stagingPath, String page) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(stagingPath, page + ".*")) {
+            for (Path file : files) {
+                if (Files.isRegularFile(file)) {
+                    return file.getFileName().toString();
+                }
+            }
+        } catch (IOException e) {
+            // Nothing staged, download the page
+        }
+        return null;
+    }
+
+    /**
+     * Appends a page to the chapter archive, if any
+     * @return false if the page could not be archived
+     */
+    private static boolean archivePage(ChapterArchive archive, String name, int chapterIndex, Path pagePath) {
+        if (archive == null) {
+            return true;
+        }
+        try {
+            archive.addPage(pagePath);
+            return true;
+        } catch (IOException e) {
+            System.err.println("[ERROR] Manga: " + name + " | Chapter " + chapterIndex + " | Could not archive page "
+                    + pagePath.getFileName() + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Adds a downloaded page and its size to the series manifest
+     */
+    private static void recordPage(LibraryManifest.Series manifest, int chapterIndex, Path pagePath) {
+        try {
+            manifest.recordPage(chapterIndex, pagePath.getFileName().toString(), Files.size(pagePath));
+        } catch (IOException e) {
+            System.err.println("[WARN] Could not read size of " + pagePath + ": " + e.getMessage());
+        }
+    }
 
-            if (download(folderPath, fileName, url)) {
-                System.out.println("[INFO] Manga: " + name + " | Chapter " + chapterIndex + " | Downloaded page " + page + fileType);
-                return true;
+    /**
+     * Outcome of downloading a page in any file type
+     */
+    protected static final class PageResult {
+        final DownloadResult result;
+        final String fileType;
+
+        PageResult(DownloadResult result, String fileType) {
+            this.result = result;
+            this.fileType = fileType;
+        }
+    }
+
+    /**
+     * Downloads a page with the predicted file type first, then checks the alternatives with HEAD
+     * @return FOUND with the downloaded file type, NOT_FOUND if every file type is a definite 404,
+     *         otherwise the failure that prevented a decision
+     */
+    protected static PageResult downloadPageAnyType(String name, String chapter, String page, String folderPath) {
+        String[] fileTypes = ExtensionPredictor.candidates(name, chapter);
+        DownloadResult result = download(folderPath, page + fileTypes[0], pageRef(name, chapter, page, fileTypes[0]));
+        if (result == DownloadResult.FOUND) {
+            ExtensionPredictor.recordHit(name, chapter, fileTypes[0]);
+            return new PageResult(result, fileTypes[0]);
+        }
+        if (result != DownloadResult.NOT_FOUND) {
+            return new PageResult(result, null);
+        }
+        ExtensionPredictor.recordMiss(fileTypes[0]);
+
+        List<PageRef> alternatives = new ArrayList<>();
+        for (int i = 1; i < fileTypes.length; i++) {
+            alternatives.add(pageRef(name, chapter, page, fileTypes[i]));
+        }
+        DownloadResult combined = DownloadResult.NOT_FOUND;
+        for (int index : ExtensionPredictor.probeAlternatives(alternatives)) {
+            String fileType = fileTypes[index + 1];
+            result = download(folderPath, page + fileType, alternatives.get(index));
+            if (result == DownloadResult.FOUND) {
+                ExtensionPredictor.recordHit(name, chapter, fileType);
+                return new PageResult(result, fileType);
+            }
+            if (result == DownloadResult.NOT_FOUND) {
+                ExtensionPredictor.recordMiss(fileType);
+            } else if (combined != DownloadResult.TRANSIENT) {
+                combined = result;
             }
         }
-        return false;
+        return new PageResult(combined, null);
+    }
+
+    /**
+     * Builds a reference to a single page, which PageSources locates on every mirror
+     */
+    protected static PageRef pageRef(String name, String chapter, String page, String fileType) {
+        return new PageRef(name, chapter, page, fileType);
     }
 }
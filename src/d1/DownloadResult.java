@@ -0,0 +1,32 @@
+package d1;
+
+/**
+ * Outcome of a single download or existence probe.
+ * Only NOT_FOUND means the resource does not exist; TRANSIENT and FATAL say nothing about it.
+ */
+public enum DownloadResult {
+    /** The resource was downloaded or confirmed to exist */
+    FOUND,
+    /** The server answered 404 or 410 */
+    NOT_FOUND,
+    /** Timeouts, connection failures, throttling and server errors; worth retrying */
+    TRANSIENT,
+    /** Any other client error; retrying will not help */
+    FATAL;
+
+    /**
+     * Classifies an HTTP status code, or -1 for a request that failed without a response
+     */
+    public static DownloadResult fromStatus(int status) {
+        if (status >= 200 && status < 300) {
+            return FOUND;
+        }
+        if (status == 404 || status == 410) {
+            return NOT_FOUND;
+        }
+        if (status < 0 || status == 408 || status == 425 || status == 429 || status >= 500) {
+            return TRANSIENT;
+        }
+        return FATAL;
+    }
+}
@@ -0,0 +1,211 @@
+package d1;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs series, chapter and page work on virtual threads. Concurrency is bounded by
+ * permits rather than pool sizes: a global request limit, an adaptive per-host limit
+ * (HostLimiter), the global rate limits (RateLimiter) and a limit on chapters downloading
+ * at the same time. Requests to a host whose CircuitBreaker is open wait until it closes.
+ * Fixed limits are read from manga.scheduler.maxRequests and manga.scheduler.maxChapters.
+ */
+public final class DownloadScheduler {
+
+    private static final int MAX_REQUESTS = Integer.getInteger("manga.scheduler.maxRequests", 256);
+    private static final int MAX_CHAPTERS = Integer.getInteger("manga.scheduler.maxChapters", 32);
+
+    private static final Semaphore requestPermits = new Semaphore(MAX_REQUESTS, true);
+    private static final Semaphore chapterPermits = new Semaphore(MAX_CHAPTERS, true);
+    private static final Map<String, HostLimiter> hostLimiters = new ConcurrentHashMap<>();
+    private static final Map<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+
+    // Fire-and-forget tasks such as single page fetches; each task gets its own virtual thread
+    private static final ExecutorService SHARED = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * A held request or chapter permit, released by close().
+     * Request permits also carry the outcome of the request back to the host limiter and circuit breaker.
+     */
+    public static final class Permit implements AutoCloseable {
+        private final Semaphore semaphore;
+        private final HostLimiter hostLimiter;
+        private final CircuitBreaker circuitBreaker;
+        private final boolean trial;
+        private boolean outcomeRecorded = false;
+        private boolean released = false;
+        private long queueWaitNanos = 0;
+        private Permit linked;
+
+        private Permit(Semaphore semaphore) {
+            this(semaphore, null, null, false);
+        }
+
+        private Permit(Semaphore semaphore, HostLimiter hostLimiter, CircuitBreaker circuitBreaker, boolean trial) {
+            this.semaphore = semaphore;
+            this.hostLimiter = hostLimiter;
+            this.circuitBreaker = circuitBreaker;
+            this.trial = trial;
+        }
+
+        /**
+         * Returns how long the caller waited for this permit
+         */
+        public long getQueueWaitNanos() {
+            return queueWaitNanos;
+        }
+
+        /**
+         * Reports a response to the host limiter
+         * @param status HTTP status code
+         * @param latencyMs Time until the response headers arrived
+         * @param retryAfterMs Pause requested by the server, or 0
+         */
+        public void recordResponse(int status, long latencyMs, long retryAfterMs) {
+            if (hostLimiter != null) {
+                hostLimiter.onResponse(status, latencyMs, retryAfterMs);
+            }
+            if (circuitBreaker != null) {
+                outcomeRecorded = true;
+                if (DownloadResult.fromStatus(status) == DownloadResult.TRANSIENT) {
+                    circuitBreaker.onFailure(trial);
+                } else {
+                    circuitBreaker.onSuccess(trial);
+                }
+            }
+        }
+
+        /**
+         * Reports a request that failed without a response
+         */
+        public void recordFailure() {
+            if (hostLimiter != null) {
+                hostLimiter.onFailure();
+            }
+            if (circuitBreaker != null) {
+                outcomeRecorded = true;
+                circuitBreaker.onFailure(trial);
+            }
+        }
+
+        /**
+         * Releases another permit together with this one, e.g. that of a hedged request whose body the holder reads
+         */
+        public synchronized void link(Permit other) {
+            if (released) {
+                other.close();
+            } else if (linked == null) {
+                linked = other;
+            } else {
+                linked.link(other);
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            if (linked != null) {
+                linked.close();
+            }
+            if (!released) {
+                released = true;
+                semaphore.release();
+                if (hostLimiter != null) {
+                    hostLimiter.release();
+                }
+                if (trial && !outcomeRecorded) {
+                    circuitBreaker.abandonTrial();
+                }
+            }
+        }
+    }
+
+    private DownloadScheduler() {
+    }
+
+    /**
+     * Opens a scope whose tasks each run on their own virtual thread.
+     * Shutting the scope down and awaiting it waits for every task submitted to it.
+     * @param name Prefix for the thread names, visible in thread dumps
+     */
+    public static ExecutorService newScope(String name) {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory());
+    }
+
+    /**
+     * Returns the process-wide virtual-thread executor
+     */
+    public static ExecutorService shared() {
+        return SHARED;
+    }
+
+    /**
+     * Blocks until a request to the URL's host may start
+     * @param url The URL about to be requested
+     * @return Permit to close once the response body has been consumed
+     */
+    public static Permit acquireRequest(String url) throws InterruptedException {
+        long waitStart = System.nanoTime();
+        String host = URI.create(url).getHost();
+        String key = host == null ? "" : host;
+        CircuitBreaker circuitBreaker = circuitBreakers.computeIfAbsent(key, CircuitBreaker::new);
+        HostLimiter hostLimiter = hostLimiters.computeIfAbsent(key, HostLimiter::new);
+
+        boolean trial = circuitBreaker.awaitPermission();
+        try {
+            hostLimiter.acquire();
+        } catch (InterruptedException e) {
+            if (trial) {
+                circuitBreaker.abandonTrial();
+            }
+            throw e;
+        }
+        try {
+            requestPermits.acquire();
+        } catch (InterruptedException e) {
+            hostLimiter.release();
+            if (trial) {
+                circuitBreaker.abandonTrial();
+            }
+            throw e;
+        }
+        Permit permit = new Permit(requestPermits, hostLimiter, circuitBreaker, trial);
+        try {
+            RateLimiter.acquireRequest();
+        } catch (InterruptedException e) {
+            permit.close();
+            throw e;
+        }
+        permit.queueWaitNanos = System.nanoTime() - waitStart;
+        Metrics.recordNanos("request.queueWait", permit.queueWaitNanos);
+        return permit;
+    }
+
+    /**
+     * Blocks until another chapter may start downloading
+     * @return Permit to close once the chapter is finished
+     */
+    public static Permit acquireChapter() throws InterruptedException {
+        chapterPermits.acquire();
+        return new Permit(chapterPermits);
+    }
+
+    /**
+     * Returns how many chapters may download at the same time
+     */
+    public static int getMaxChapters() {
+        return MAX_CHAPTERS;
+    }
+
+    /**
+     * Prints the concurrency limit each host settled on
+     */
+    public static void printSummary() {
+        for (HostLimiter hostLimiter : hostLimiters.values()) {
+            System.out.println("[INFO] Host " + hostLimiter.getHost() + " | Concurrency limit: " + hostLimiter.getLimit());
+        }
+    }
+}
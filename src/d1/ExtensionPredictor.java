@@ -0,0 +1,165 @@
+package d1;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Predicts the file extension of a page from the last successful download of the
+ * same chapter or series, so most pages cost a single request.
+ * Series-level predictions are persisted in Mangas/.extensions.properties between runs.
+ */
+public class ExtensionPredictor {
+
+    public static final String[] SUPPORTED_FILE_TYPES = {".jpg", ".webp", ".png"};
+    private static final Path STORE_FILE = Paths.get("Mangas", ".extensions.properties");
+
+    private static final Map<String, String> seriesExtensions = new ConcurrentHashMap<>();
+    private static final Map<String, String> chapterExtensions = new ConcurrentHashMap<>();
+    private static final AtomicLong wastedProbes = new AtomicLong();
+    private static volatile boolean dirty = false;
+
+    static {
+        load();
+    }
+
+    /**
+     * Returns the supported file types ordered by likelihood for the given chapter
+     */
+    public static String[] candidates(String mangaName, String chapter) {
+        String predicted = chapterExtensions.get(chapterKey(mangaName, chapter));
+        if (predicted == null) {
+            predicted = seriesExtensions.get(mangaName);
+        }
+        if (predicted == null) {
+            return SUPPORTED_FILE_TYPES.clone();
+        }
+
+        List<String> ordered = new ArrayList<>();
+        ordered.add(predicted);
+        for (String fileType : SUPPORTED_FILE_TYPES) {
+            if (!fileType.equals(predicted)) {
+                ordered.add(fileType);
+            }
+        }
+        return ordered.toArray(new String[0]);
+    }
+
+    /**
+     * Records the extension that a page was successfully downloaded with
+     */
+    public static void recordHit(String mangaName, String chapter, String fileType) {
+        if (Metrics.isEnabled()) {
+            Metrics.increment("extension.hit" + fileType);
+        }
+        chapterExtensions.put(chapterKey(mangaName, chapter), fileType);
+        if (!fileType.equals(seriesExtensions.put(mangaName, fileType))) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Counts a request that did not return a page
+     * @param fileType The extension that was tried
+     */
+    public static void recordMiss(String fileType) {
+        if (Metrics.isEnabled()) {
+            Metrics.increment("extension.miss" + fileType);
+        }
+        wastedProbes.incrementAndGet();
+    }
+
+    /**
+     * Checks the alternative extensions in parallel with HEAD requests
+     * @param pages Candidate pages in priority order
+     * @return Indices of pages worth a GET, in priority order; servers rejecting HEAD keep their page in the list
+     */
+    public static List<Integer> probeAlternatives(List<PageRef> pages) {
+        List<CompletableFuture<Integer>> probes = new ArrayList<>();
+        for (PageRef page : pages) {
+            probes.add(NegativeCache.isMissing(NegativeCache.Kind.PAGE, page.url())
+                    ? CompletableFuture.completedFuture(404)
+                    : HttpEngine.headAsync(page));
+        }
+
+        List<Integer> found = new ArrayList<>();
+        for (int i = 0; i < probes.size(); i++) {
+            int status = probes.get(i).join();
+            if (status == 404 || status == 410) {
+                NegativeCache.recordMissing(NegativeCache.Kind.PAGE, pages.get(i).url());
+                recordMiss(pages.get(i).fileType());
+            } else {
+                found.add(i);
+            }
+        }
+        return found;
+    }
+
+    public static long getWastedProbes() {
+        return wastedProbes.get();
+    }
+
+    private static String chapterKey(String mangaName, String chapter) {
+        return mangaName + "/" + chapter;
+    }
+
+    private static void load() {
+        if (!Files.exists(STORE_FILE)) {
+            return;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(STORE_FILE)) {
+            properties.load(in);
+            for (String name : properties.stringPropertyNames()) {
+                seriesExtensions.put(name, properties.getProperty(name));
+            }
+        } catch (IOException e) {
+            System.err.println("[WARN] Failed to read " + STORE_FILE + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the series-level predictions to disk if they changed during this run, through a temporary file
+     * so a crash mid-write leaves the previous file intact
+     */
+    public static void save() {
+        if (!dirty || !Files.isDirectory(STORE_FILE.getParent())) {
+            return;
+        }
+        Properties properties = new Properties();
+        properties.putAll(seriesExtensions);
+        Path temp = STORE_FILE.resolveSibling(STORE_FILE.getFileName() + ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                properties.store(out, "Last successful page extension per manga");
+            }
+            try {
+                Files.move(temp, STORE_FILE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, STORE_FILE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            dirty = false;
+        } catch (IOException e) {
+            System.err.println("[WARN] Failed to write " + STORE_FILE + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Prints the number of requests that did not return a page
+     */
+    public static void printSummary() {
+        System.out.println("[INFO] Wasted extension probes: " + wastedProbes.get());
+    }
+}
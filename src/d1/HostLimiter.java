@@ -0,0 +1,139 @@
+package d1;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Adaptive concurrency limit for a single host (AIMD).
+ * The limit grows by one per limit-worth of healthy responses and is halved on
+ * 429/503, server errors, slow responses or connection failures. A Retry-After
+ * header pauses the host entirely.
+ * Uses a ReentrantLock so waiting virtual threads do not pin their carrier threads.
+ */
+public class HostLimiter {
+
+    private static final int MIN_LIMIT = 1;
+    private static final int MAX_LIMIT = Integer.getInteger("manga.limiter.maxPerHost", 64);
+    private static final int INITIAL_LIMIT = Integer.getInteger("manga.limiter.initialPerHost", 8);
+    private static final long SLOW_RESPONSE_MS = Long.getLong("manga.limiter.slowMs", 5000);
+    private static final long BACKOFF_COOLDOWN_MS = 1000;
+    private static final double LATENCY_SMOOTHING = 0.2;
+
+    private final String host;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+
+    private double limit = Math.min(INITIAL_LIMIT, MAX_LIMIT);
+    private int inFlight = 0;
+    private long pausedUntil = 0;
+    private long lastBackoff = 0;
+    private double averageLatencyMs = -1;
+
+    public HostLimiter(String host) {
+        this.host = host;
+    }
+
+    /**
+     * Blocks until the host accepts another request
+     */
+    public void acquire() throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                long pause = pausedUntil - System.currentTimeMillis();
+                if (pause > 0) {
+                    changed.await(pause, TimeUnit.MILLISECONDS);
+                } else if (inFlight < (int) limit) {
+                    inFlight++;
+                    return;
+                } else {
+                    changed.await();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Feeds back the outcome of a request
+     * @param status HTTP status code
+     * @param latencyMs Time until the response headers arrived
+     * @param retryAfterMs Pause requested by the server, or 0
+     */
+    public void onResponse(int status, long latencyMs, long retryAfterMs) {
+        lock.lock();
+        try {
+            if (status == 429 || status == 503) {
+                backOff();
+                if (retryAfterMs > 0) {
+                    pausedUntil = Math.max(pausedUntil, System.currentTimeMillis() + retryAfterMs);
+                    System.out.println("[WARN] " + host + " asked to pause for " + retryAfterMs + " ms");
+                }
+            } else if (status >= 500 || isSlow(latencyMs)) {
+                backOff();
+            } else {
+                limit = Math.min(MAX_LIMIT, limit + 1.0 / limit);
+            }
+            averageLatencyMs = averageLatencyMs < 0
+                    ? latencyMs
+                    : averageLatencyMs + LATENCY_SMOOTHING * (latencyMs - averageLatencyMs);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Feeds back a request that failed without a response, such as a reset or timeout
+     */
+    public void onFailure() {
+        lock.lock();
+        try {
+            backOff();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    private boolean isSlow(long latencyMs) {
+        if (latencyMs > SLOW_RESPONSE_MS) {
+            return true;
+        }
+        // Latency jumping well above its running average means the origin is queueing requests
+        return averageLatencyMs > 0 && latencyMs > 500 && latencyMs > averageLatencyMs * 4;
+    }
+
+    private void backOff() {
+        long now = System.currentTimeMillis();
+        // One decrease per cooldown, so a burst of failures from one overload halves the limit once
+        if (now - lastBackoff >= BACKOFF_COOLDOWN_MS) {
+            limit = Math.max(MIN_LIMIT, limit / 2);
+            lastBackoff = now;
+        }
+    }
+}
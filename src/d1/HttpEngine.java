@@ -0,0 +1,522 @@
+package d1;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide pooled HTTP client shared by all downloaders.
+ * Settings are read once from system properties:
+ * manga.http.poolSize, manga.http.connectTimeoutSec, manga.http.firstByteTimeoutSec (formerly
+ * manga.http.requestTimeoutSec), manga.http.idleReadTimeoutSec, manga.http.http2
+ * Every request is bounded by the current Deadline as well as by these timeouts.
+ */
+public final class HttpEngine {
+
+    private static final int POOL_SIZE = Integer.getInteger("manga.http.poolSize", 20);
+    private static final long CONNECT_TIMEOUT_SEC = Long.getLong("manga.http.connectTimeoutSec", 10);
+    // Until the response headers arrive
+    private static final long FIRST_BYTE_TIMEOUT_SEC = Long.getLong("manga.http.firstByteTimeoutSec",
+            Long.getLong("manga.http.requestTimeoutSec", 60));
+    // Longest pause between two reads of a response body
+    private static final long IDLE_READ_TIMEOUT_SEC = Long.getLong("manga.http.idleReadTimeoutSec", 20);
+    private static final boolean PREFER_HTTP2 = Boolean.parseBoolean(System.getProperty("manga.http.http2", "true"));
+    private static final String USER_AGENT = "MangaDownloader/1.0";
+
+    private static final HttpClient CLIENT = createClient();
+
+    // Request counters used to estimate connection reuse
+    private static final AtomicLong requests = new AtomicLong();
+    private static final Map<String, HostStats> hostStats = new ConcurrentHashMap<>();
+
+    // Response bodies being read, checked by the watchdog for stalls and expired deadlines
+    private static final Set<GuardedBody> openBodies = ConcurrentHashMap.newKeySet();
+    private static final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "http-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        long period = Math.max(100, Math.min(1000, TimeUnit.SECONDS.toMillis(IDLE_READ_TIMEOUT_SEC) / 4));
+        watchdog.scheduleWithFixedDelay(HttpEngine::checkOpenBodies, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Tracks concurrency per host. The client keeps idle connections alive, so a
+     * new HTTP/1.1 connection is only needed when in-flight requests exceed the
+     * previous peak; HTTP/2 multiplexes everything over one connection.
+     */
+    private static class HostStats {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger peak = new AtomicInteger();
+        volatile boolean http2;
+    }
+
+    private HttpEngine() {
+    }
+
+    private static HttpClient createClient() {
+        // The JDK client reads its pool limit from this property when the class is first loaded
+        if (System.getProperty("jdk.httpclient.connectionPoolSize") == null) {
+            System.setProperty("jdk.httpclient.connectionPoolSize", String.valueOf(POOL_SIZE));
+        }
+        return HttpClient.newBuilder()
+                .version(PREFER_HTTP2 ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(CONNECT_TIMEOUT_SEC))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(DownloadScheduler.shared())
+                .build();
+    }
+
+    /**
+     * Returns the shared client instance
+     */
+    public static HttpClient client() {
+        return CLIENT;
+    }
+
+    /**
+     * Issues an asynchronous HEAD request, moving on to the next mirror of the page while the answer is a 404 or a failure
+     * @param page The page to check
+     * @return Future completing with the status code, or -1 if the request failed
+     */
+    public static CompletableFuture<Integer> headAsync(PageRef page) {
+        return headOnMirrors(PageSources.candidates(page), 0);
+    }
+
+    private static CompletableFuture<Integer> headOnMirrors(List<String> urls, int index) {
+        CompletableFuture<Integer> status = statusAsync(newRequest(urls.get(index)).method("HEAD", HttpRequest.BodyPublishers.noBody()).build());
+        if (index + 1 == urls.size()) {
+            return status;
+        }
+        // A mirror that lags behind or fails does not decide for the others
+        return status.thenCompose(code -> DownloadResult.fromStatus(code) == DownloadResult.FOUND || code == 405 || code == 501
+                ? CompletableFuture.completedFuture(code)
+                : headOnMirrors(urls, index + 1).thenApply(next -> DownloadResult.fromStatus(next) == DownloadResult.NOT_FOUND ? code : next));
+    }
+
+    /**
+     * Checks whether a page exists on any of its mirrors, best mirror first, falling back to GET for servers that reject HEAD
+     * @param page The page to check
+     * @return Future completing with FOUND, NOT_FOUND if every mirror answered 404, or the failure
+     */
+    public static CompletableFuture<DownloadResult> existsAsync(PageRef page) {
+        return existsOnMirrors(PageSources.candidates(page), 0);
+    }
+
+    /**
+     * Checks whether a URL exists, falling back to GET for servers that reject HEAD
+     * @param url The URL to check, e.g. a canonical page URL from a cache, which carries no mirrors
+     * @return Future completing with FOUND, NOT_FOUND for a 404, or the failure
+     */
+    public static CompletableFuture<DownloadResult> existsAsync(String url) {
+        return existsOnMirrors(List.of(url), 0);
+    }
+
+    private static CompletableFuture<DownloadResult> existsOnMirrors(List<String> urls, int index) {
+        String url = urls.get(index);
+        CompletableFuture<DownloadResult> result = statusAsync(newRequest(url).method("HEAD", HttpRequest.BodyPublishers.noBody()).build())
+                .thenCompose(status -> status == 405 || status == 501
+                        ? statusAsync(newRequest(url).GET().build())
+                        : CompletableFuture.completedFuture(status))
+                .thenApply(DownloadResult::fromStatus);
+        if (index + 1 == urls.size()) {
+            return result;
+        }
+        return result.thenCompose(found -> found == DownloadResult.FOUND
+                ? CompletableFuture.completedFuture(found)
+                : existsOnMirrors(urls, index + 1).thenApply(next -> next == DownloadResult.NOT_FOUND ? found : next));
+    }
+
+    private static CompletableFuture<Integer> statusAsync(HttpRequest request) {
+        if (Deadline.current().isExpired()) {
+            Metrics.increment("request.deadlineExceeded");
+            return CompletableFuture.completedFuture(-1);
+        }
+        DownloadScheduler.Permit permit;
+        try {
+            permit = DownloadScheduler.acquireRequest(request.uri().toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.completedFuture(-1);
+        }
+        HostStats stats = beginRequest(request);
+        RequestEvent event = beginEvent(request, permit);
+        long start = System.nanoTime();
+        return CLIENT.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .handle((response, error) -> {
+                    stats.inFlight.decrementAndGet();
+                    if (error != null) {
+                        permit.recordFailure();
+                        permit.close();
+                        endRequest(event, request, -1, start);
+                        return -1;
+                    }
+                    endRequest(event, request, response.statusCode(), start);
+                    permit.recordResponse(response.statusCode(), elapsedMillis(start), retryAfterMillis(response));
+                    permit.close();
+                    if (response.version() == HttpClient.Version.HTTP_2) {
+                        stats.http2 = true;
+                    }
+                    return response.statusCode();
+                });
+    }
+
+    /**
+     * Creates a request builder with the default headers applied and the first-byte timeout clamped to the current deadline
+     */
+    public static HttpRequest.Builder newRequest(String url) {
+        return HttpRequest.newBuilder(URI.create(url))
+                .timeout(Deadline.current().clamp(Duration.ofSeconds(FIRST_BYTE_TIMEOUT_SEC)))
+                .header("User-Agent", USER_AGENT);
+    }
+
+    /**
+     * Sends a request through the shared client, records connection statistics and
+     * reports the outcome to the host limiter through the caller's request permit.
+     * The caller keeps the permit until the response body is consumed.
+     */
+    public static <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler,
+            DownloadScheduler.Permit permit) throws IOException, InterruptedException {
+        if (Deadline.current().isExpired()) {
+            Metrics.increment("request.deadlineExceeded");
+            throw new IOException("Deadline exceeded before requesting " + request.uri());
+        }
+        HostStats stats = beginRequest(request);
+        RequestEvent event = beginEvent(request, permit);
+        long start = System.nanoTime();
+        try {
+            HttpResponse<T> response = CLIENT.send(request, handler);
+            endRequest(event, request, response.statusCode(), start);
+            if (response.version() == HttpClient.Version.HTTP_2) {
+                stats.http2 = true;
+            }
+            permit.recordResponse(response.statusCode(), elapsedMillis(start), retryAfterMillis(response));
+            return response;
+        } catch (IOException e) {
+            endRequest(event, request, -1, start);
+            permit.recordFailure();
+            throw e;
+        } finally {
+            stats.inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * Sends the same GET to the mirrors of a page, streaming the body of whichever responds first.
+     * The first request goes out at once; if its headers have not arrived after PageSources.hedgeDelayMillis,
+     * a hedged request goes to the next mirror with a permit of its own, which is linked to the caller's permit.
+     * The losing request is cancelled and its body closed.
+     * @param requests The same request on each mirror, best mirror first
+     */
+    public static HttpResponse<InputStream> sendHedged(List<HttpRequest> requests, DownloadScheduler.Permit permit)
+            throws IOException, InterruptedException {
+        long hedgeDelay = PageSources.hedgeDelayMillis();
+        if (requests.size() < 2 || hedgeDelay < 0) {
+            return send(requests.get(0), HttpResponse.BodyHandlers.ofInputStream(), permit);
+        }
+        if (Deadline.current().isExpired()) {
+            Metrics.increment("request.deadlineExceeded");
+            throw new IOException("Deadline exceeded before requesting " + requests.get(0).uri());
+        }
+
+        CompletableFuture<HttpResponse<InputStream>> primary = sendTracked(requests.get(0), permit);
+        try {
+            return primary.get(hedgeDelay, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // Slower than usual, race a second mirror
+        } catch (ExecutionException e) {
+            throw asIOException(e.getCause());
+        } catch (InterruptedException e) {
+            primary.cancel(true);
+            throw e;
+        }
+
+        PageSources.recordHedgeSent();
+        Metrics.increment("request.hedged");
+        AtomicBoolean decided = new AtomicBoolean();
+        HttpRequest hedgeRequest = requests.get(1);
+        // The hedge's permit and exchange, kept so a losing hedge can be aborted and its permit returned
+        AtomicReference<DownloadScheduler.Permit> hedgePermit = new AtomicReference<>();
+        AtomicReference<CompletableFuture<HttpResponse<InputStream>>> hedgeExchange = new AtomicReference<>();
+        CompletableFuture<HttpResponse<InputStream>> hedge = CompletableFuture.supplyAsync(() -> {
+            try {
+                DownloadScheduler.Permit acquired = DownloadScheduler.acquireRequest(hedgeRequest.uri().toString());
+                if (decided.get()) {
+                    acquired.close();
+                    throw new CancellationException("Hedge no longer needed");
+                }
+                permit.link(acquired);
+                hedgePermit.set(acquired);
+                return acquired;
+            } catch (InterruptedException e) {
+                throw new CancellationException("Hedge interrupted");
+            }
+        }, DownloadScheduler.shared()).thenCompose(acquired -> {
+            CompletableFuture<HttpResponse<InputStream>> exchange = sendTracked(hedgeRequest, acquired);
+            hedgeExchange.set(exchange);
+            if (decided.get()) {
+                // Decided while the hedge was being sent
+                exchange.cancel(true);
+            }
+            return exchange;
+        });
+
+        CompletableFuture<HttpResponse<InputStream>> winner = new CompletableFuture<>();
+        AtomicReference<CompletableFuture<HttpResponse<InputStream>>> won = new AtomicReference<>();
+        AtomicInteger failures = new AtomicInteger();
+        for (CompletableFuture<HttpResponse<InputStream>> attempt : List.of(primary, hedge)) {
+            attempt.whenComplete((response, error) -> {
+                if (response != null) {
+                    if (!won.compareAndSet(null, attempt)) {
+                        closeQuietly(response.body());
+                        return;
+                    }
+                    if (attempt == hedge) {
+                        PageSources.recordHedgeWon();
+                    }
+                    winner.complete(response);
+                } else if (failures.incrementAndGet() == 2) {
+                    winner.completeExceptionally(error);
+                }
+            });
+        }
+
+        try {
+            return winner.get();
+        } catch (ExecutionException e) {
+            throw asIOException(e.getCause());
+        } finally {
+            decided.set(true);
+            // Cancelling the future of sendAsync itself aborts the exchange; dependent stages would not
+            primary.cancel(true);
+            CompletableFuture<HttpResponse<InputStream>> exchange = hedgeExchange.get();
+            if (exchange != null) {
+                exchange.cancel(true);
+            }
+            hedge.cancel(true);
+            DownloadScheduler.Permit losingPermit = hedgePermit.get();
+            if (losingPermit != null && won.get() != hedge) {
+                losingPermit.close();
+            }
+        }
+    }
+
+    /**
+     * Sends a GET asynchronously with the same bookkeeping as send; a cancelled request only counts towards
+     * the ranking of its mirror
+     * @return The future of the exchange itself, so cancelling it aborts the request
+     */
+    private static CompletableFuture<HttpResponse<InputStream>> sendTracked(HttpRequest request, DownloadScheduler.Permit permit) {
+        HostStats stats = beginRequest(request);
+        RequestEvent event = beginEvent(request, permit);
+        long start = System.nanoTime();
+        CompletableFuture<HttpResponse<InputStream>> exchange = CLIENT.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream());
+        exchange.whenComplete((response, error) -> {
+            stats.inFlight.decrementAndGet();
+            if (error != null) {
+                if (!(unwrap(error) instanceof CancellationException)) {
+                    endRequest(event, request, -1, start);
+                    permit.recordFailure();
+                } else {
+                    // Lost a hedge race; the mirror was at least this slow
+                    PageSources.recordAbandoned(request.uri().toString(), elapsedMillis(start));
+                }
+                return;
+            }
+            endRequest(event, request, response.statusCode(), start);
+            if (response.version() == HttpClient.Version.HTTP_2) {
+                stats.http2 = true;
+            }
+            permit.recordResponse(response.statusCode(), elapsedMillis(start), retryAfterMillis(response));
+        });
+        return exchange;
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    private static IOException asIOException(Throwable error) {
+        Throwable cause = unwrap(error);
+        return cause instanceof IOException io ? io : new IOException(cause.getMessage(), cause);
+    }
+
+    private static void closeQuietly(InputStream body) {
+        try {
+            body.close();
+        } catch (IOException e) {
+            // The losing body is discarded either way
+        }
+    }
+
+    /**
+     * Wraps a streamed response body so the watchdog closes it when a read waits for data longer than the
+     * idle-read timeout, or the current deadline expires. Only time spent blocked in read counts as idle, so
+     * a reader that pauses between reads, e.g. for the byte-rate limit, is never taken for a stalled server.
+     * Closing the body cancels the exchange, which closes an HTTP/1.1 connection or resets the HTTP/2 stream,
+     * and the blocked read fails with an IOException naming the cause.
+     */
+    public static InputStream guard(InputStream body) {
+        GuardedBody guarded = new GuardedBody(body, Deadline.current());
+        openBodies.add(guarded);
+        return guarded;
+    }
+
+    private static void checkOpenBodies() {
+        long idleLimit = TimeUnit.SECONDS.toNanos(IDLE_READ_TIMEOUT_SEC);
+        long now = System.nanoTime();
+        for (GuardedBody body : openBodies) {
+            if (body.deadline.isExpired()) {
+                body.abort("Deadline exceeded while reading the response");
+                Metrics.increment("request.deadlineExceeded");
+            } else if (body.readingSince != 0 && now - body.readingSince > idleLimit) {
+                body.abort("No data received for " + IDLE_READ_TIMEOUT_SEC + " s");
+                Metrics.increment("request.idleTimeout");
+            }
+        }
+    }
+
+    /**
+     * Response body that records since when a read has been waiting for data
+     */
+    private static final class GuardedBody extends FilterInputStream {
+        final Deadline deadline;
+        // Start of the read in progress, 0 while the reader is busy elsewhere
+        volatile long readingSince = 0;
+        volatile String abortReason;
+
+        GuardedBody(InputStream body, Deadline deadline) {
+            super(body);
+            this.deadline = deadline;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read;
+            readingSince = System.nanoTime();
+            try {
+                read = super.read(buffer, offset, length);
+            } catch (IOException e) {
+                throw abortReason != null ? new IOException(abortReason, e) : e;
+            } finally {
+                readingSince = 0;
+            }
+            // A body closed by the watchdog may look like a normal end of stream
+            if (read == -1 && abortReason != null) {
+                throw new IOException(abortReason);
+            }
+            return read;
+        }
+
+        void abort(String reason) {
+            abortReason = reason;
+            openBodies.remove(this);
+            try {
+                super.close();
+            } catch (IOException e) {
+                // Closing is all that matters here
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            openBodies.remove(this);
+            super.close();
+        }
+    }
+
+    private static RequestEvent beginEvent(HttpRequest request, DownloadScheduler.Permit permit) {
+        RequestEvent event = new RequestEvent();
+        event.begin();
+        event.queueWait = permit.getQueueWaitNanos();
+        return event;
+    }
+
+    /**
+     * Records time to first byte and the status class, and commits the JFR event
+     * @param status HTTP status code, or -1 if the request failed without a response
+     */
+    private static void endRequest(RequestEvent event, HttpRequest request, int status, long startNanos) {
+        PageSources.recordOutcome(request.uri().toString(), request.method(), status, elapsedMillis(startNanos));
+        if (Metrics.isEnabled()) {
+            Metrics.recordNanos("request.ttfb." + request.method(), System.nanoTime() - startNanos);
+            Metrics.increment(status < 0 ? "request.failed" : "request.status." + status / 100 + "xx");
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.url = request.uri().toString();
+            event.method = request.method();
+            event.status = status;
+            event.commit();
+        }
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+    /**
+     * Returns the Retry-After delay in milliseconds; only the delta-seconds form is supported
+     */
+    private static long retryAfterMillis(HttpResponse<?> response) {
+        return response.headers().firstValue("Retry-After")
+                .filter(value -> value.trim().matches("\\d+"))
+                .map(value -> Long.parseLong(value.trim()) * 1000)
+                .orElse(0L);
+    }
+
+    private static HostStats beginRequest(HttpRequest request) {
+        String host = request.uri().getHost();
+        HostStats stats = hostStats.computeIfAbsent(host == null ? "" : host, h -> new HostStats());
+        int current = stats.inFlight.incrementAndGet();
+        stats.peak.accumulateAndGet(current, Math::max);
+        requests.incrementAndGet();
+        return stats;
+    }
+
+    /**
+     * Prints the number of requests and the estimated connection reuse ratio
+     */
+    public static void printSummary() {
+        long total = requests.get();
+        if (total == 0) {
+            return;
+        }
+        long connections = 0;
+        for (HostStats stats : hostStats.values()) {
+            connections += stats.http2 ? 1 : Math.max(1, stats.peak.get());
+        }
+        double reuse = 1.0 - (double) Math.min(connections, total) / total;
+        System.out.println(String.format("[INFO] HTTP requests: %d | Estimated connections: %d | Connection reuse ratio: %.1f%%",
+                total, connections, reuse * 100));
+    }
+}
@@ -0,0 +1,381 @@
+package d1;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Compact on-disk record of what has been downloaded for each series, stored as
+ * Mangas/&lt;series&gt;/.manifest. Lets the downloaders and the updater skip completed
+ * chapters without listing directories.
+ *
+ * File layout, one record per line:
+ *   format|%03d
+ *   &lt;chapter&gt;|&lt;pageCount&gt;|01.webp:183422,02.webp:179310,...
+ *   unverified|&lt;chapter&gt;|01.webp:183422,...
+ * Unverified chapters were found on disk by a rebuild and may have been cut short by a killed run. They do not
+ * count as complete; the next download of the chapter keeps their pages that are still whole and promotes the
+ * chapter once the page after its last one is confirmed missing.
+ */
+public class LibraryManifest {
+
+    public static final String MANIFEST_FILE = ".manifest";
+    private static final String CHAPTER_PREFIX = "Chapter ";
+    private static final String UNVERIFIED = "unverified";
+    private static final long SAVE_INTERVAL_MS = 5000;
+
+    private static final Map<Path, Series> seriesCache = new ConcurrentHashMap<>();
+
+    /**
+     * Manifest of a single series
+     */
+    public static class Series {
+        private final Path mangaPath;
+        private final boolean loadedFromDisk;
+        private String format;
+        private final Map<Integer, Chapter> chapters = new TreeMap<>();
+        private final Map<Integer, Chapter> unverified = new TreeMap<>();
+        private final Map<Integer, Map<String, Long>> pendingPages = new ConcurrentHashMap<>();
+        private boolean dirty = false;
+        private long lastSave = System.currentTimeMillis();
+
+        private Series(Path mangaPath, boolean loadedFromDisk) {
+            this.mangaPath = mangaPath;
+            this.loadedFromDisk = loadedFromDisk;
+        }
+
+        /**
+         * Returns true if the manifest was read from disk rather than created empty
+         */
+        public boolean isLoadedFromDisk() {
+            return loadedFromDisk;
+        }
+
+        public synchronized boolean isChapterComplete(int chapter) {
+            return chapters.containsKey(chapter);
+        }
+
+        public synchronized Set<Integer> getCompletedChapters() {
+            return new TreeSet<>(chapters.keySet());
+        }
+
+        /**
+         * Returns the chapters a rebuild found on disk that are not known to be complete
+         */
+        public synchronized Set<Integer> getUnverifiedChapters() {
+            return new TreeSet<>(unverified.keySet());
+        }
+
+        /**
+         * Returns the pages an unverified chapter had on disk when the manifest was rebuilt, or an empty map
+         */
+        public synchronized Map<String, Long> getUnverifiedPages(int chapter) {
+            Chapter entry = unverified.get(chapter);
+            return entry == null ? new TreeMap<>() : new TreeMap<>(entry.pages);
+        }
+
+        public synchronized int getPageCount(int chapter) {
+            Chapter entry = chapters.get(chapter);
+            return entry == null ? 0 : entry.pages.size();
+        }
+
+        /**
+         * Returns the pages of a completed chapter with their sizes, or an empty map
+         */
+        public synchronized Map<String, Long> getPages(int chapter) {
+            Chapter entry = chapters.get(chapter);
+            return entry == null ? new TreeMap<>() : new TreeMap<>(entry.pages);
+        }
+
+        /**
+         * Updates the recorded size of a page in a completed chapter
+         */
+        public synchronized void updatePage(int chapter, String fileName, long size) {
+            Chapter entry = chapters.get(chapter);
+            if (entry != null && !Long.valueOf(size).equals(entry.pages.put(fileName, size))) {
+                dirty = true;
+            }
+        }
+
+        /**
+         * Drops a completed chapter so the next run downloads it again
+         */
+        public synchronized void forgetChapter(int chapter) {
+            if (chapters.remove(chapter) != null) {
+                dirty = true;
+            }
+            if (unverified.remove(chapter) != null) {
+                dirty = true;
+            }
+        }
+
+        public synchronized String getFormat() {
+            return format;
+        }
+
+        public synchronized void setFormat(String format) {
+            if (format != null && !format.equals(this.format)) {
+                this.format = format;
+                dirty = true;
+            }
+        }
+
+        /**
+         * Records a downloaded page; it becomes part of the manifest when its chapter completes
+         */
+        public void recordPage(int chapter, String fileName, long size) {
+            pendingPages.computeIfAbsent(chapter, c -> new ConcurrentHashMap<>()).put(fileName, size);
+        }
+
+        /**
+         * Marks a chapter as fully downloaded with the pages recorded so far
+         */
+        public void completeChapter(int chapter) {
+            synchronized (this) {
+                // Removed under the lock so renamePage always finds the page in one of the two maps
+                Map<String, Long> pages = pendingPages.remove(chapter);
+                if (pages == null || pages.isEmpty()) {
+                    return;
+                }
+                chapters.put(chapter, new Chapter(new TreeMap<>(pages)));
+                unverified.remove(chapter);
+                dirty = true;
+            }
+            saveIfDue();
+        }
+
+        /**
+         * Replaces a page that was re-encoded under a new file name, whether or not its chapter is complete yet
+         */
+        public synchronized void renamePage(int chapter, String oldFileName, String newFileName, long size) {
+            Map<String, Long> pending = pendingPages.get(chapter);
+            if (pending != null && pending.remove(oldFileName) != null) {
+                pending.put(newFileName, size);
+                return;
+            }
+            Chapter entry = chapters.get(chapter);
+            if (entry != null && entry.pages.remove(oldFileName) != null) {
+                entry.pages.put(newFileName, size);
+                dirty = true;
+            }
+        }
+
+        /**
+         * Saves the manifest if it changed and the last save is older than the save interval
+         */
+        public synchronized void saveIfDue() {
+            if (dirty && System.currentTimeMillis() - lastSave >= SAVE_INTERVAL_MS) {
+                save();
+            }
+        }
+
+        /**
+         * Writes the manifest atomically if it changed
+         */
+        public synchronized void save() {
+            if (!dirty) {
+                return;
+            }
+            Path target = mangaPath.resolve(MANIFEST_FILE);
+            Path temp = mangaPath.resolve(MANIFEST_FILE + ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(temp)) {
+                if (format != null) {
+                    writer.write("format|" + format);
+                    writer.newLine();
+                }
+                for (Map.Entry<Integer, Chapter> entry : chapters.entrySet()) {
+                    writer.write(entry.getKey() + "|" + entry.getValue().pages.size() + "|" + entry.getValue().encodePages());
+                    writer.newLine();
+                }
+                for (Map.Entry<Integer, Chapter> entry : unverified.entrySet()) {
+                    writer.write(UNVERIFIED + "|" + entry.getKey() + "|" + entry.getValue().encodePages());
+                    writer.newLine();
+                }
+            } catch (IOException e) {
+                System.err.println("[ERROR] Failed to write manifest for " + mangaPath.getFileName() + ": " + e.getMessage());
+                return;
+            }
+            try {
+                try {
+                    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+                dirty = false;
+                lastSave = System.currentTimeMillis();
+            } catch (IOException e) {
+                System.err.println("[ERROR] Failed to replace manifest for " + mangaPath.getFileName() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Pages of a completed chapter with their sizes in bytes
+     */
+    private static class Chapter {
+        final Map<String, Long> pages;
+
+        Chapter(Map<String, Long> pages) {
+            this.pages = pages;
+        }
+
+        String encodePages() {
+            StringBuilder builder = new StringBuilder();
+            for (Map.Entry<String, Long> page : pages.entrySet()) {
+                if (builder.length() > 0) {
+                    builder.append(',');
+                }
+                builder.append(page.getKey()).append(':').append(page.getValue());
+            }
+            return builder.toString();
+        }
+
+        static Chapter decode(String encoded) {
+            Map<String, Long> pages = new LinkedHashMap<>();
+            if (!encoded.isEmpty()) {
+                for (String page : encoded.split(",")) {
+                    int separator = page.lastIndexOf(':');
+                    pages.put(page.substring(0, separator), Long.parseLong(page.substring(separator + 1)));
+                }
+            }
+            return new Chapter(pages);
+        }
+    }
+
+    /**
+     * Returns the manifest of a series, loading it from disk on first use
+     * @param mangaPath The series directory
+     */
+    public static Series forSeries(Path mangaPath) {
+        return seriesCache.computeIfAbsent(mangaPath.toAbsolutePath().normalize(), LibraryManifest::load);
+    }
+
+    private static Series load(Path mangaPath) {
+        Path file = mangaPath.resolve(MANIFEST_FILE);
+        if (!Files.exists(file)) {
+            return new Series(mangaPath, false);
+        }
+
+        Series series = new Series(mangaPath, true);
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\\|", 3);
+                try {
+                    if (parts[0].equals("format") && parts.length == 2) {
+                        series.format = parts[1];
+                    } else if (parts[0].equals(UNVERIFIED) && parts.length == 3) {
+                        series.unverified.put(Integer.parseInt(parts[1]), Chapter.decode(parts[2]));
+                    } else if (parts.length == 3) {
+                        series.chapters.put(Integer.parseInt(parts[0]), Chapter.decode(parts[2]));
+                    }
+                } catch (RuntimeException e) {
+                    System.err.println("[WARN] Skipping invalid manifest line in " + file + ": " + line);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("[ERROR] Failed to read manifest " + file + ": " + e.getMessage());
+        }
+        return series;
+    }
+
+    /**
+     * Rebuilds the manifest of a series from its chapter directories and .cbz archives, keeping the recorded format.
+     * Finished archives are only ever written whole and count as complete; chapter folders are recorded as unverified.
+     * @param mangaPath The series directory
+     * @return The rebuilt manifest, already saved to disk
+     */
+    public static Series rebuild(Path mangaPath) {
+        Series previous = forSeries(mangaPath);
+        Series series = new Series(mangaPath, true);
+        series.format = previous.getFormat();
+        series.dirty = true;
+
+        try (Stream<Path> chapterEntries = Files.list(mangaPath)) {
+            chapterEntries.filter(path -> path.getFileName().toString().startsWith(CHAPTER_PREFIX))
+                .forEach(chapterEntry -> {
+                    if (Files.isDirectory(chapterEntry)) {
+                        addChapterFolder(series, chapterEntry);
+                    } else {
+                        addChapterArchive(series, chapterEntry);
+                    }
+                });
+        } catch (IOException e) {
+            System.err.println("[ERROR] Failed to scan " + mangaPath + " for manifest rebuild: " + e.getMessage());
+            return previous;
+        }
+
+        series.save();
+        seriesCache.put(mangaPath.toAbsolutePath().normalize(), series);
+        return series;
+    }
+
+    private static void addChapterFolder(Series series, Path chapterDir) {
+        try {
+            int chapter = Integer.parseInt(chapterDir.getFileName().toString().substring(CHAPTER_PREFIX.length()).trim());
+            Map<String, Long> pages = listPages(chapterDir);
+            if (!pages.isEmpty()) {
+                // A killed run leaves a folder that ends early without any gap in its page numbers
+                series.unverified.put(chapter, new Chapter(pages));
+            }
+        } catch (NumberFormatException e) {
+            // Ignore folders that are not numbered chapters
+        }
+    }
+
+    /**
+     * Adds a finished .cbz chapter, taking its pages from the archive's central directory
+     */
+    private static void addChapterArchive(Series series, Path archivePath) {
+        int chapter = ChapterArchive.chapterNumber(archivePath);
+        if (chapter < 0) {
+            return;
+        }
+        try {
+            Map<String, Long> pages = ChapterArchive.readIndex(archivePath);
+            if (!pages.isEmpty()) {
+                series.chapters.put(chapter, new Chapter(pages));
+            }
+        } catch (IOException e) {
+            System.err.println("[WARN] Skipping unreadable archive " + archivePath + ": " + e.getMessage());
+        }
+    }
+
+    private static Map<String, Long> listPages(Path chapterDir) {
+        Map<String, Long> pages = new TreeMap<>();
+        try (Stream<Path> files = Files.list(chapterDir)) {
+            files.filter(Files::isRegularFile)
+                .filter(path -> !path.getFileName().toString().startsWith("."))
+                .forEach(path -> {
+                    try {
+                        pages.put(path.getFileName().toString(), Files.size(path));
+                    } catch (IOException e) {
+                        // File vanished during the scan
+                    }
+                });
+        } catch (IOException e) {
+            System.err.println("[ERROR] Failed to list " + chapterDir + ": " + e.getMessage());
+        }
+        return pages;
+    }
+
+    /**
+     * Saves every manifest that changed during this run
+     */
+    public static void saveAll() {
+        for (Series series : seriesCache.values()) {
+            series.save();
+        }
+    }
+}
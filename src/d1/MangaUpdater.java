@@ -11,8 +11,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Stream;
@@ -20,15 +22,15 @@ import java.util.stream.Stream;
 public class MangaUpdater extends DownloadManga {
     private static final String DATA_FILE = "data.txt";
     private static final String MANGAS_DIR = "Mangas";
-    private static final String CHAPTER_PREFIX = "Chapter ";
     private static final int MAX_CONSECUTIVE_FAILURES = 5;
-    private static final int CHECK_INTERVAL_MS = 2000;
     private static final int UPDATE_TIMEOUT_HOURS = 5;
     private static final int DOWNLOAD_TIMEOUT_HOURS = 1;
-    private static final String[] SUPPORTED_FILE_TYPES = {".jpg", ".webp", ".png"};
-    
-    private static final int UPDATE_THREADS = Math.min(Runtime.getRuntime().availableProcessors(), 5);
-    private static final int DOWNLOAD_THREADS = 3;
+
+    // "gallop" brackets the newest chapter with page-01 probes, "sequential" walks chapter by chapter
+    private static final boolean GALLOPING_DISCOVERY =
+            !"sequential".equalsIgnoreCase(System.getProperty("manga.update.discovery", "gallop"));
+    private static final int MAX_CHAPTER_NUMBER = 9999;
+    private static final int UNDECIDED = -2;
 
     private static class MangaConfig {
         String name;
@@ -42,14 +44,12 @@ public class MangaUpdater extends DownloadManga {
         }
     }
 
-    private Map<String, MangaConfig> configs;
-    private Map<String, String> detectedFormats; // Stores detected format patterns per manga
+    private volatile Map<String, MangaConfig> configs;
     private ExecutorService executor;
     private AtomicInteger totalNewChapters;
 
     public MangaUpdater() {
         configs = loadMangaConfigs();
-        detectedFormats = new HashMap<>();
         totalNewChapters = new AtomicInteger(0);
     }
 
@@ -63,85 +63,185 @@ public class MangaUpdater extends DownloadManga {
     }
 
     private String[] getChapterFormats(String mangaName, int chapter) {
-        // If we've detected a format for this manga, try that first
-        String detectedFormat = detectedFormats.get(mangaName);
-        if (detectedFormat != null) {
-            return new String[]{ String.format(detectedFormat, chapter) };
-        }
-
-        // Otherwise try formats in priority order
-        return new String[]{
-            String.format("%03d", chapter),    // Try 3 digits first (001)
-            String.format("%02d", chapter),    // Then 2 digits (01)
-            String.format("%d", chapter)       // Finally no padding (1)
-        };
+        // A series with a known format is probed in that format only, no detection needed
+        return ChapterFormats.candidates(mangaName, chapter, false);
     }
 
-    private void setDetectedFormat(String mangaName, String chapterFormat) {
-        if (!detectedFormats.containsKey(mangaName)) {
-            String pattern;
-            if (chapterFormat.length() == 1) {
-                pattern = "%d";      // e.g., "1"
-            } else if (chapterFormat.length() == 2) {
-                pattern = "%02d";    // e.g., "01"
-            } else {
-                pattern = "%03d";    // e.g., "001"
-            }
-            detectedFormats.put(mangaName, pattern);
-            System.out.println("[INFO] Detected format pattern for " + mangaName + ": " + pattern);
-        }
+    private void setDetectedFormat(String mangaName, int chapter, String chapterFormat) {
+        ChapterFormats.confirm(mangaName, chapter, chapterFormat);
+        LibraryManifest.forSeries(Paths.get(MANGAS_DIR, mangaName))
+                .setFormat(ChapterFormats.get(mangaName, MAX_CHAPTER_NUMBER));
     }
 
-    private boolean downloadChapterPages(String name, Path mangaPath, int chapter, String format) {
-        String folderName = mangaPath.resolve(CHAPTER_PREFIX + chapter).toString();
+    /**
+     * Seeds the format registry with the format recorded in the series manifest
+     */
+    private static void seedFormatFromManifest(String mangaName) {
+        String manifestFormat = LibraryManifest.forSeries(Paths.get(MANGAS_DIR, mangaName)).getFormat();
+        ChapterFormats.seed(mangaName, manifestFormat, "Manifest");
+    }
+
+    /**
+     * Looks for page 01 of a chapter in every candidate format and downloads the chapter if found.
+     * Chapters the negative cache remembers as missing are skipped without a request.
+     * @param missKind Kind of negative cache entry to record if the chapter does not exist
+     * @return FOUND if the chapter was downloaded, NOT_FOUND only if every format answered 404
+     */
+    private DownloadResult downloadChapterPages(String name, Path mangaPath, int chapter, String format,
+            NegativeCache.Kind missKind) {
+        String cacheKey = NegativeCache.chapterKey(name, chapter);
+        if (NegativeCache.isMissing(missKind, cacheKey)) {
+            return DownloadResult.NOT_FOUND;
+        }
+        String folderName = chapterFolder(mangaPath, chapter).toString();
         String page = "01";
+        DownloadResult result = DownloadResult.NOT_FOUND;
         
-        // Try each possible chapter format
+        // Try each possible chapter format, file types are ordered by the extension predictor
         for (String chapterFormat : getChapterFormats(name, chapter)) {
-            // Try each file type
-            for (String fileType : SUPPORTED_FILE_TYPES) {
-                String url = buildPageUrl(name, chapterFormat, page, fileType);
-                if (download(folderName, page + fileType, url)) {
-                    setDetectedFormat(name, chapterFormat);
-                    System.out.println("[INFO] Found chapter " + chapter + " using format: " + chapterFormat);
-                    downloadChapter(name, mangaPath, chapter, format);
-                    return true;
-                }
+            PageResult pageResult = downloadPageAnyType(name, chapterFormat, page, folderName);
+            recordFormatResult(chapterFormat, pageResult.result);
+            if (pageResult.result == DownloadResult.FOUND) {
+                setDetectedFormat(name, chapter, chapterFormat);
+                System.out.println("[INFO] Found chapter " + chapter + " using format: " + chapterFormat);
+                NegativeCache.clear(missKind, cacheKey);
+                downloadChapter(name, mangaPath, chapter, format);
+                return DownloadResult.FOUND;
+            }
+            if (pageResult.result != DownloadResult.NOT_FOUND) {
+                result = pageResult.result;
             }
         }
-        return false;
+        if (result == DownloadResult.NOT_FOUND) {
+            NegativeCache.recordMissing(missKind, cacheKey);
+        }
+        return result;
     }
 
+    /**
+     * Backfills the gaps below the last chapter in parallel. Contiguous gaps are merged into ranges, page 01 of
+     * every gap is probed up front, and the chapters that exist are submitted to the download executor range by
+     * range, so the backfill overlaps with new-chapter discovery. Progress is reported as each range finishes;
+     * the executor's shutdown waits for the downloads.
+     */
     private void downloadMissingChapters(String name, Path mangaPath, String format, Set<Integer> existingChapters, 
             int lastChapter, ExecutorService downloadExecutor, AtomicInteger newChapters) {
-        List<Integer> missingChapters = new ArrayList<>();
+        List<int[]> ranges = new ArrayList<>();
+        int missingCount = 0;
         for (int i = 1; i <= lastChapter; i++) {
-            if (!existingChapters.contains(i)) {
-                missingChapters.add(i);
+            if (existingChapters.contains(i)) {
+                continue;
+            }
+            missingCount++;
+            int[] last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+            if (last != null && last[1] == i - 1) {
+                last[1] = i;
+            } else {
+                ranges.add(new int[]{ i, i });
             }
         }
-        
-        if (!missingChapters.isEmpty()) {
-            System.out.println("[INFO] Found " + missingChapters.size() + " missing chapters in sequence");
-            for (int chapter : missingChapters) {
-                if (downloadChapterPages(name, mangaPath, chapter, format)) {
-                    newChapters.incrementAndGet();
-                    System.out.println("[SUCCESS] Downloaded missing chapter " + chapter);
+        if (ranges.isEmpty()) {
+            return;
+        }
+        System.out.println("[INFO] Found " + missingCount + " missing chapters in sequence, in " + ranges.size() + " range(s)");
+
+        // All probes start before the first one is awaited
+        Map<Integer, CompletableFuture<DownloadResult>> probes = new HashMap<>();
+        for (int[] range : ranges) {
+            for (int chapter = range[0]; chapter <= range[1]; chapter++) {
+                probes.put(chapter, NegativeCache.isMissing(NegativeCache.Kind.CHAPTER_GAP, NegativeCache.chapterKey(name, chapter))
+                        ? CompletableFuture.completedFuture(DownloadResult.NOT_FOUND)
+                        : probeChapterAsync(name, chapter, false));
+            }
+        }
+
+        for (int[] range : ranges) {
+            List<Integer> toDownload = new ArrayList<>();
+            for (int chapter = range[0]; chapter <= range[1]; chapter++) {
+                DownloadResult result = probes.get(chapter).join();
+                String cacheKey = NegativeCache.chapterKey(name, chapter);
+                if (result == DownloadResult.NOT_FOUND) {
+                    NegativeCache.recordMissing(NegativeCache.Kind.CHAPTER_GAP, cacheKey);
+                } else {
+                    // Failed probes are left to the download to decide
+                    NegativeCache.clear(NegativeCache.Kind.CHAPTER_GAP, cacheKey);
+                    toDownload.add(chapter);
                 }
             }
+            submitBackfillRange(name, mangaPath, format, range, toDownload, probes, downloadExecutor, newChapters);
+        }
+    }
+
+    private void submitBackfillRange(String name, Path mangaPath, String format, int[] range, List<Integer> chapters,
+            Map<Integer, CompletableFuture<DownloadResult>> probes, ExecutorService downloadExecutor, AtomicInteger newChapters) {
+        String label = range[0] == range[1] ? "chapter " + range[0] : "chapters " + range[0] + "-" + range[1];
+        int rangeSize = range[1] - range[0] + 1;
+        if (chapters.isEmpty()) {
+            System.out.println("[INFO] Backfill " + name + " | " + label + ": not on the server");
+            return;
+        }
+
+        LibraryManifest.Series manifest = LibraryManifest.forSeries(mangaPath);
+        AtomicInteger remaining = new AtomicInteger(chapters.size());
+        AtomicInteger downloaded = new AtomicInteger();
+        for (int chapter : chapters) {
+            downloadExecutor.submit(() -> {
+                try {
+                    boolean found;
+                    if (probes.get(chapter).join() == DownloadResult.FOUND) {
+                        // The probe already detected the chapter format
+                        downloadChapter(name, mangaPath, chapter, format);
+                        found = manifest.isChapterComplete(chapter);
+                    } else {
+                        found = downloadChapterPages(name, mangaPath, chapter, format, NegativeCache.Kind.CHAPTER_GAP) == DownloadResult.FOUND;
+                    }
+                    if (found) {
+                        downloaded.incrementAndGet();
+                        newChapters.incrementAndGet();
+                        System.out.println("[SUCCESS] Downloaded missing chapter " + chapter);
+                    }
+                } finally {
+                    if (remaining.decrementAndGet() == 0) {
+                        System.out.println("[INFO] Backfill " + name + " | " + label + ": " + downloaded.get() + " of "
+                                + rangeSize + " downloaded, " + (rangeSize - chapters.size()) + " not on the server");
+                    }
+                }
+            });
         }
     }
 
     private void checkForNewChapters(String name, Path mangaPath, String format, int lastChapter,
             ExecutorService downloadExecutor, AtomicInteger newChapters) throws InterruptedException {
+        long start = System.nanoTime();
+        int before = newChapters.get();
+        try {
+            if (GALLOPING_DISCOVERY) {
+                discoverNewChapters(name, mangaPath, format, lastChapter, downloadExecutor, newChapters);
+            } else {
+                walkNewChapters(name, mangaPath, format, lastChapter, newChapters);
+            }
+        } finally {
+            Metrics.recordNanos("discovery.duration", System.nanoTime() - start);
+            Metrics.add("discovery.newChapters", newChapters.get() - before);
+        }
+    }
+
+    /**
+     * Probes chapters one by one after the last one until several in a row are missing
+     */
+    private void walkNewChapters(String name, Path mangaPath, String format, int lastChapter, AtomicInteger newChapters) {
         int currentChapter = lastChapter + 1;
         int consecutiveFailures = 0;
 
         while (consecutiveFailures < MAX_CONSECUTIVE_FAILURES) {
-            if (downloadChapterPages(name, mangaPath, currentChapter, format)) {
+            DownloadResult result = downloadChapterPages(name, mangaPath, currentChapter, format, NegativeCache.Kind.CHAPTER_NEXT);
+            if (result == DownloadResult.FOUND) {
                 consecutiveFailures = 0;
                 newChapters.incrementAndGet();
                 System.out.println("[SUCCESS] Downloaded new chapter " + currentChapter);
+            } else if (result != DownloadResult.NOT_FOUND) {
+                // Only a definite 404 counts towards the end of the series
+                System.err.println("[WARN] Could not check chapter " + currentChapter + " of " + name + ": " + result);
             } else {
                 consecutiveFailures++;
                 if (consecutiveFailures >= MAX_CONSECUTIVE_FAILURES) {
@@ -150,7 +250,198 @@ public class MangaUpdater extends DownloadManga {
                 }
             }
             currentChapter++;
-            Thread.sleep(CHECK_INTERVAL_MS);
+        }
+    }
+
+    /**
+     * Finds the newest chapter with galloping page-01 probes, then downloads the whole new range at once
+     */
+    private void discoverNewChapters(String name, Path mangaPath, String format, int lastChapter,
+            ExecutorService downloadExecutor, AtomicInteger newChapters) throws InterruptedException {
+        int newestChapter = findNewestChapter(name, lastChapter);
+        if (newestChapter <= lastChapter) {
+            System.out.println("[INFO] No new chapters found for " + name);
+            return;
+        }
+
+        System.out.println("[INFO] Newest chapter for " + name + " is " + newestChapter
+                + ", downloading chapters " + (lastChapter + 1) + "-" + newestChapter);
+        List<Future<?>> downloads = new ArrayList<>();
+        for (int chapter = lastChapter + 1; chapter <= newestChapter; chapter++) {
+            int chapterIndex = chapter;
+            downloads.add(downloadExecutor.submit(() -> {
+                // Holes below the newest chapter are gaps, not unreleased chapters
+                if (downloadChapterPages(name, mangaPath, chapterIndex, format, NegativeCache.Kind.CHAPTER_GAP) == DownloadResult.FOUND) {
+                    newChapters.incrementAndGet();
+                    System.out.println("[SUCCESS] Downloaded new chapter " + chapterIndex);
+                }
+            }));
+        }
+
+        for (Future<?> download : downloads) {
+            try {
+                download.get();
+            } catch (ExecutionException e) {
+                System.err.println("[ERROR] Chapter download failed for " + name + ": " + e.getCause().getMessage());
+            }
+        }
+    }
+
+    /**
+     * Brackets the newest chapter with exponential steps and binary-searches the bracket.
+     * Each probe covers MAX_CONSECUTIVE_FAILURES chapters so holes in the numbering are tolerated.
+     * @return The newest existing chapter, or lastChapter if there is nothing new
+     */
+    private int findNewestChapter(String name, int lastChapter) {
+        int newest = lastChapter;
+        int upperMiss = -1;
+        int step = 1;
+
+        while (upperMiss < 0) {
+            int candidate = newest + step;
+            if (candidate > MAX_CHAPTER_NUMBER) {
+                upperMiss = MAX_CHAPTER_NUMBER + 1;
+                break;
+            }
+            int found = probeChapterWindow(name, candidate);
+            if (found == UNDECIDED) {
+                System.err.println("[WARN] Chapter discovery for " + name + " stopped at " + newest + " because probes kept failing");
+                return newest;
+            }
+            if (found < 0) {
+                upperMiss = candidate;
+            } else {
+                newest = found;
+                step *= 2;
+            }
+        }
+
+        while (upperMiss - newest > 1) {
+            int mid = newest + (upperMiss - newest) / 2;
+            int found = probeChapterWindow(name, mid);
+            if (found == UNDECIDED) {
+                System.err.println("[WARN] Chapter discovery for " + name + " stopped at " + newest + " because probes kept failing");
+                return newest;
+            }
+            if (found < 0) {
+                upperMiss = mid;
+            } else {
+                newest = found;
+            }
+        }
+        return newest;
+    }
+
+    /**
+     * Probes page 01 of a window of chapters in parallel, retrying while failures leave the answer open
+     * @return The highest chapter in the window that exists, -1 if every probe was a definite 404,
+     *         or UNDECIDED if failures persisted
+     */
+    private int probeChapterWindow(String name, int firstChapter) {
+        for (int attempt = 1; attempt <= RetryPolicy.MAX_ATTEMPTS; attempt++) {
+            if (attempt > 1) {
+                try {
+                    RetryPolicy.backoff(attempt - 1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return UNDECIDED;
+                }
+            }
+            int found = probeChapterWindowOnce(name, firstChapter);
+            if (found != UNDECIDED) {
+                return found;
+            }
+        }
+        return UNDECIDED;
+    }
+
+    private int probeChapterWindowOnce(String name, int firstChapter) {
+        List<CompletableFuture<DownloadResult>> probes = new ArrayList<>();
+        for (int chapter = firstChapter; chapter < firstChapter + MAX_CONSECUTIVE_FAILURES; chapter++) {
+            probes.add(NegativeCache.isMissing(NegativeCache.Kind.CHAPTER_NEXT, NegativeCache.chapterKey(name, chapter))
+                    ? CompletableFuture.completedFuture(DownloadResult.NOT_FOUND)
+                    : probeChapterAsync(name, chapter, false));
+        }
+
+        int highest = -1;
+        boolean failures = false;
+        for (int i = 0; i < probes.size(); i++) {
+            int chapter = firstChapter + i;
+            String cacheKey = NegativeCache.chapterKey(name, chapter);
+            DownloadResult result = probes.get(i).join();
+            if (result == DownloadResult.FOUND) {
+                NegativeCache.clear(NegativeCache.Kind.CHAPTER_NEXT, cacheKey);
+                highest = chapter;
+            } else if (result == DownloadResult.NOT_FOUND) {
+                NegativeCache.recordMissing(NegativeCache.Kind.CHAPTER_NEXT, cacheKey);
+            } else {
+                failures = true;
+            }
+        }
+        return highest < 0 && failures ? UNDECIDED : highest;
+    }
+
+    /**
+     * Checks page 01 of a chapter in every candidate format and file type without downloading it
+     * @param includeAlternatives Also try formats other than the known one, to notice a new numbering scheme
+     * @return FOUND if any candidate exists, NOT_FOUND if every candidate is a definite 404,
+     *         otherwise the failure that prevented a decision
+     */
+    private CompletableFuture<DownloadResult> probeChapterAsync(String name, int chapter, boolean includeAlternatives) {
+        List<CompletableFuture<DownloadResult>> probes = new ArrayList<>();
+        List<String> probeFormats = new ArrayList<>();
+        for (String chapterFormat : ChapterFormats.candidates(name, chapter, includeAlternatives)) {
+            for (String fileType : ExtensionPredictor.candidates(name, chapterFormat)) {
+                probes.add(HttpEngine.existsAsync(pageRef(name, chapterFormat, "01", fileType)));
+                probeFormats.add(chapterFormat);
+            }
+        }
+
+        return CompletableFuture.allOf(probes.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+            DownloadResult combined = DownloadResult.NOT_FOUND;
+            for (int i = 0; i < probes.size(); i++) {
+                DownloadResult result = probes.get(i).join();
+                recordFormatResult(probeFormats.get(i), result);
+                if (result == DownloadResult.FOUND) {
+                    setDetectedFormat(name, chapter, probeFormats.get(i));
+                    return DownloadResult.FOUND;
+                }
+                if (result != DownloadResult.NOT_FOUND && combined != DownloadResult.TRANSIENT) {
+                    combined = result;
+                }
+            }
+            return combined;
+        });
+    }
+
+    /**
+     * Counts a page-01 result per chapter number format; failures count as neither hit nor miss
+     */
+    private static void recordFormatResult(String chapterFormat, DownloadResult result) {
+        if (!Metrics.isEnabled()) {
+            return;
+        }
+        if (result == DownloadResult.FOUND) {
+            Metrics.increment("format.hit." + ChapterFormats.formatOf(chapterFormat));
+        } else if (result == DownloadResult.NOT_FOUND) {
+            Metrics.increment("format.miss." + ChapterFormats.formatOf(chapterFormat));
+        }
+    }
+
+    /**
+     * Re-checks expired negative cache entries in one parallel batch per kind, before the series are processed.
+     * Unreleased chapters are re-checked in every format, which is how a change of numbering scheme is noticed.
+     */
+    public void sweepNegativeCache() {
+        NegativeCache.sweepExpired(NegativeCache.Kind.PAGE, HttpEngine::existsAsync);
+        for (NegativeCache.Kind kind : new NegativeCache.Kind[]{ NegativeCache.Kind.CHAPTER_GAP, NegativeCache.Kind.CHAPTER_NEXT }) {
+            boolean includeAlternatives = kind == NegativeCache.Kind.CHAPTER_NEXT;
+            NegativeCache.sweepExpired(kind, key -> {
+                int separator = key.lastIndexOf('#');
+                String name = key.substring(0, separator);
+                seedFormatFromManifest(name);
+                return probeChapterAsync(name, Integer.parseInt(key.substring(separator + 1)), includeAlternatives);
+            });
         }
     }
 
@@ -161,7 +452,10 @@ public class MangaUpdater extends DownloadManga {
             return 0;
         }
 
-        executor = Executors.newFixedThreadPool(UPDATE_THREADS);
+        Deadline.startRun();
+        resumeInterruptedChapters();
+        executor = DownloadScheduler.newScope("series");
+        sweepNegativeCache();
         
         try {
             processMangaSeries(mangasDir);
@@ -174,9 +468,25 @@ public class MangaUpdater extends DownloadManga {
         return totalNewChapters.get();
     }
 
+    /**
+     * Finishes the chapters an interrupted run left behind before the series are checked, so they count as existing
+     */
+    private void resumeInterruptedChapters() {
+        ChapterScheduler scheduler = new ChapterScheduler("resume", DownloadScheduler.getMaxChapters());
+        resumeInterrupted(scheduler);
+        try {
+            scheduler.awaitCompletion(DOWNLOAD_TIMEOUT_HOURS, TimeUnit.HOURS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("[ERROR] Resumed downloads were interrupted");
+        }
+    }
+
     private void processMangaSeries(Path mangasDir) throws IOException {
         try (Stream<Path> paths = Files.list(mangasDir)) {
+            // Hidden folders such as the page store are not series
             paths.filter(Files::isDirectory)
+                .filter(path -> !path.getFileName().toString().startsWith("."))
                 .forEach(mangaPath -> {
                     executor.submit(() -> processOneManga(mangaPath));
                 });
@@ -184,31 +494,52 @@ public class MangaUpdater extends DownloadManga {
     }
 
     private void processOneManga(Path mangaPath) {
-        String mangaName = mangaPath.getFileName().toString();
+        totalNewChapters.addAndGet(updateManga(mangaPath.getFileName().toString()));
+    }
+
+    /**
+     * Checks a single series for missing and new chapters and downloads them
+     * @return Number of chapters downloaded
+     */
+    public int updateManga(String mangaName) {
         System.out.println("\n[INFO] Checking updates for: " + mangaName);
+        seedFormatFromManifest(mangaName);
         
         int newChapters;
-        if (configs.containsKey(mangaName)) {
-            newChapters = updateWithKnownFormat(mangaName, configs.get(mangaName));
+        MangaConfig config = configs.get(mangaName);
+        if (config != null) {
+            newChapters = updateWithKnownFormat(mangaName, config);
         } else {
             newChapters = updateWithUnknownFormat(mangaName);
         }
         
         if (newChapters > 0) {
-            totalNewChapters.addAndGet(newChapters);
             System.out.println("[SUCCESS] Downloaded " + newChapters + " new chapter(s) for " + mangaName);
         } else {
             System.out.println("[INFO] No new or missing chapters found for " + mangaName);
         }
+        return newChapters;
+    }
+
+    /**
+     * Reads the data file again, e.g. after it was edited while the update daemon runs
+     */
+    public void reloadConfigs() {
+        configs = loadMangaConfigs();
     }
 
     private int updateWithKnownFormat(String mangaName, MangaConfig config) {
         System.out.println("[INFO] Using format type " + config.formatType + " for " + mangaName);
+        ChapterFormats.seed(mangaName, config.formatPattern, DATA_FILE);
         return checkAndDownloadAllChapters(mangaName, config.formatPattern);
     }
 
     private int updateWithUnknownFormat(String mangaName) {
-        System.out.println("[INFO] No format specified for " + mangaName + ", format will be auto-detected");
+        if (ChapterFormats.isKnown(mangaName)) {
+            System.out.println("[INFO] Using detected format " + ChapterFormats.get(mangaName, MAX_CHAPTER_NUMBER) + " for " + mangaName);
+        } else {
+            System.out.println("[INFO] No format specified for " + mangaName + ", format will be auto-detected");
+        }
         return checkAndDownloadAllChapters(mangaName, "%03d"); // Starting format doesn't matter, will be auto-detected
     }
 
@@ -220,10 +551,13 @@ public class MangaUpdater extends DownloadManga {
         }
 
         Set<Integer> existingChapters = findExistingChapters(mangaPath);
-        int lastChapter = existingChapters.isEmpty() ? 0 : existingChapters.stream().max(Integer::compareTo).get();
+        // Unverified chapters still count towards the newest chapter, but are re-checked like missing ones
+        Set<Integer> knownChapters = new TreeSet<>(existingChapters);
+        knownChapters.addAll(LibraryManifest.forSeries(mangaPath).getUnverifiedChapters());
+        int lastChapter = knownChapters.isEmpty() ? 0 : knownChapters.stream().max(Integer::compareTo).get();
         System.out.println("[INFO] Last downloaded chapter for " + name + ": " + lastChapter);
         
-        ExecutorService downloadExecutor = Executors.newFixedThreadPool(DOWNLOAD_THREADS);
+        ExecutorService downloadExecutor = DownloadScheduler.newScope("downloads-" + name);
         AtomicInteger newChapters = new AtomicInteger(0);
 
         try {
@@ -234,6 +568,8 @@ public class MangaUpdater extends DownloadManga {
             System.err.println("[ERROR] Download process was interrupted");
         } finally {
             shutdownExecutor(downloadExecutor);
+            // findExistingChapters may have replaced the cached manifest with a rebuilt one
+            LibraryManifest.forSeries(mangaPath).save();
         }
         
         return newChapters.get();
@@ -258,6 +594,12 @@ public class MangaUpdater extends DownloadManga {
                         configs.put(mangaName, new MangaConfig(mangaName, formatType));
                     } catch (NumberFormatException e) {
                         System.err.println("[ERROR] Invalid format type in line: " + line);
+                        return;
+                    }
+                    try {
+                        SeriesOptions.apply(parts[0].trim(), parts, 3);
+                    } catch (IllegalArgumentException e) {
+                        System.err.println("[ERROR] Invalid options in line: " + line);
                     }
                 }
             });
@@ -268,23 +610,15 @@ public class MangaUpdater extends DownloadManga {
         return configs;
     }
 
+    /**
+     * Returns the completed chapters from the series manifest, building it from the directory on first use
+     */
     private Set<Integer> findExistingChapters(Path mangaPath) {
-        Set<Integer> chapters = new TreeSet<>();
-        try (Stream<Path> paths = Files.list(mangaPath)) {
-            paths.filter(Files::isDirectory)
-                .map(path -> path.getFileName().toString())
-                .filter(name -> name.startsWith("Chapter "))
-                .forEach(name -> {
-                    try {
-                        chapters.add(Integer.parseInt(name.substring(8).trim()));
-                    } catch (NumberFormatException e) {
-                        // Ignore invalid chapter numbers
-                    }
-                });
-        } catch (IOException e) {
-            System.err.println("[ERROR] Failed to read manga directory: " + e.getMessage());
+        LibraryManifest.Series manifest = LibraryManifest.forSeries(mangaPath);
+        if (!manifest.isLoadedFromDisk()) {
+            manifest = LibraryManifest.rebuild(mangaPath);
         }
-        return chapters;
+        return manifest.getCompletedChapters();
     }
 
     private void shutdownExecutor(ExecutorService executor) {
@@ -300,8 +634,4 @@ public class MangaUpdater extends DownloadManga {
             Thread.currentThread().interrupt();
         }
     }
-
-    private String buildPageUrl(String name, String chapter, String page, String fileType) {
-        return "https://zuragtnom.site//uploads/manga/" + name + "/chapters/ch" + chapter + "/" + page + fileType;
-    }
 }
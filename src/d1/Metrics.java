@@ -0,0 +1,163 @@
+package d1;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms for the download pipeline, written as a JSON summary at the end of a run.
+ * Enabled with manga.metrics=true; when disabled every recording method returns on a constant check,
+ * so the instrumentation costs next to nothing. The summary goes to manga.metrics.file (metrics.json).
+ * Per-request JFR events are emitted independently whenever a JFR recording is running.
+ */
+public final class Metrics {
+
+    private static final boolean ENABLED = Boolean.getBoolean("manga.metrics");
+    private static final Path SUMMARY_FILE = Paths.get(System.getProperty("manga.metrics.file", "metrics.json"));
+
+    private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private static final Instant started = Instant.now();
+
+    /**
+     * Latency histogram with power-of-two microsecond buckets.
+     * Percentiles are reported as the upper bound of their bucket, so they are accurate to a factor of two.
+     */
+    private static final class Histogram {
+        private static final int BUCKETS = 40;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+        void record(long micros) {
+            int bucket = micros <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            buckets.incrementAndGet(bucket);
+            count.increment();
+            sum.add(micros);
+            max.accumulate(micros);
+        }
+
+        long percentile(double fraction) {
+            long total = count.sum();
+            long rank = (long) Math.ceil(total * fraction);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank && seen > 0) {
+                    return Math.min(max.get(), (1L << i) - 1);
+                }
+            }
+            return max.get();
+        }
+
+        String toJson() {
+            long total = count.sum();
+            return String.format(Locale.ROOT, "{\"count\": %d, \"meanMs\": %.3f, \"p50Ms\": %.3f, \"p90Ms\": %.3f, \"p99Ms\": %.3f, \"maxMs\": %.3f}",
+                    total, total == 0 ? 0.0 : sum.sum() / 1000.0 / total, percentile(0.5) / 1000.0,
+                    percentile(0.9) / 1000.0, percentile(0.99) / 1000.0, max.get() / 1000.0);
+        }
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * Returns true if metrics are collected; callers that build a counter name check it first,
+     * so the disabled path does not concatenate strings on every page and request
+     */
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Adds one to a counter
+     */
+    public static void increment(String name) {
+        if (!ENABLED) {
+            return;
+        }
+        counters.computeIfAbsent(name, key -> new LongAdder()).increment();
+    }
+
+    /**
+     * Adds an amount to a counter
+     */
+    public static void add(String name, long amount) {
+        if (!ENABLED) {
+            return;
+        }
+        counters.computeIfAbsent(name, key -> new LongAdder()).add(amount);
+    }
+
+    /**
+     * Records a duration in a latency histogram
+     */
+    public static void recordNanos(String name, long nanos) {
+        if (!ENABLED) {
+            return;
+        }
+        histograms.computeIfAbsent(name, key -> new Histogram()).record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    /**
+     * Writes all counters and histograms of this run to the summary file
+     * @param run Name of the program that ran, such as "update"
+     */
+    public static void writeSummary(String run) {
+        if (!ENABLED) {
+            return;
+        }
+        Map<String, Long> sortedCounters = new TreeMap<>();
+        counters.forEach((name, counter) -> sortedCounters.put(name, counter.sum()));
+        Map<String, Histogram> sortedHistograms = new TreeMap<>(histograms);
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"run\": \"").append(escape(run)).append("\",\n");
+        json.append("  \"startedAt\": \"").append(started).append("\",\n");
+        json.append("  \"durationMs\": ").append(System.currentTimeMillis() - started.toEpochMilli()).append(",\n");
+        json.append("  \"counters\": {");
+        String separator = "\n";
+        for (Map.Entry<String, Long> entry : sortedCounters.entrySet()) {
+            json.append(separator).append("    \"").append(escape(entry.getKey())).append("\": ").append(entry.getValue());
+            separator = ",\n";
+        }
+        json.append("\n  },\n");
+        json.append("  \"histograms\": {");
+        separator = "\n";
+        for (Map.Entry<String, Histogram> entry : sortedHistograms.entrySet()) {
+            json.append(separator).append("    \"").append(escape(entry.getKey())).append("\": ").append(entry.getValue().toJson());
+            separator = ",\n";
+        }
+        json.append("\n  }\n}\n");
+
+        Path temp = SUMMARY_FILE.resolveSibling(SUMMARY_FILE.getFileName() + ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(temp)) {
+                writer.write(json.toString());
+            }
+            Files.move(temp, SUMMARY_FILE, StandardCopyOption.REPLACE_EXISTING);
+            System.out.println("[INFO] Metrics written to " + SUMMARY_FILE.toAbsolutePath());
+        } catch (IOException e) {
+            System.err.println("[WARN] Failed to write " + SUMMARY_FILE + ": " + e.getMessage());
+        }
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
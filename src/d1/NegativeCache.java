@@ -0,0 +1,231 @@
+package d1;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Remembers probes that returned a definite 404 so later runs do not repeat them.
+ * Each kind of probe has its own TTL; expired entries are re-checked together by sweepExpired.
+ * Entries are persisted in Mangas/.negative-cache as kind|key|checkedAtMillis, so changing a TTL
+ * also applies to entries recorded earlier.
+ */
+public final class NegativeCache {
+
+    /**
+     * Kind of probe, each with its own TTL in hours
+     */
+    public enum Kind {
+        /** A page URL, such as an extension alternative or the page after the last one */
+        PAGE("manga.negative.pageTtlHours", 72),
+        /** A chapter number below the newest chapter that the server does not have */
+        CHAPTER_GAP("manga.negative.gapTtlHours", 168),
+        /** A chapter number past the newest chapter, i.e. not released yet */
+        CHAPTER_NEXT("manga.negative.nextTtlHours", 6);
+
+        final long ttlMillis;
+
+        Kind(String property, long defaultHours) {
+            this.ttlMillis = TimeUnit.HOURS.toMillis(Long.getLong(property, defaultHours));
+        }
+    }
+
+    private static final Path CACHE_FILE = Paths.get("Mangas", ".negative-cache");
+    private static final String SEPARATOR = "|";
+    // Page keys written before PageSources, when every page URL was built on this hard-coded base
+    // with its stray double slash; they are rewritten to the canonical URL of the primary source on load
+    private static final String LEGACY_PAGE_PREFIX = "PAGE|https://zuragtnom.site//uploads/manga/";
+    private static final Pattern LEGACY_PAGE_PATH = Pattern.compile("(.+)/chapters/ch([^/]+)/([^/.]+)(\\.[^/]+)");
+
+    // "KIND|key" -> time of the last definite 404
+    private static final Map<String, Long> entries = new ConcurrentHashMap<>();
+    private static final AtomicLong avoidedRequests = new AtomicLong();
+    private static volatile boolean dirty = false;
+
+    static {
+        load();
+    }
+
+    private NegativeCache() {
+    }
+
+    /**
+     * Returns true if the key returned 404 recently enough to skip probing it again
+     */
+    public static boolean isMissing(Kind kind, String key) {
+        Long checkedAt = entries.get(id(kind, key));
+        if (checkedAt == null || isExpired(kind, checkedAt, System.currentTimeMillis())) {
+            return false;
+        }
+        avoidedRequests.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Records a definite 404 for the key
+     */
+    public static void recordMissing(Kind kind, String key) {
+        entries.put(id(kind, key), System.currentTimeMillis());
+        dirty = true;
+    }
+
+    /**
+     * Forgets the key after it was found to exist
+     */
+    public static void clear(Kind kind, String key) {
+        if (entries.remove(id(kind, key)) != null) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Forgets every key of a kind that starts with the given prefix
+     */
+    public static void clearPrefix(Kind kind, String keyPrefix) {
+        if (entries.keySet().removeIf(id -> id.startsWith(id(kind, keyPrefix)))) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Builds the cache key of a chapter slot
+     */
+    public static String chapterKey(String mangaName, int chapter) {
+        return mangaName + "#" + chapter;
+    }
+
+    /**
+     * Re-checks all expired entries of a kind in one parallel batch.
+     * Keys still missing are renewed, keys that now exist are dropped, failures stay expired.
+     * @param checker Probe for a single key
+     * @return Number of entries that were re-checked
+     */
+    public static int sweepExpired(Kind kind, Function<String, CompletableFuture<DownloadResult>> checker) {
+        String prefix = kind.name() + SEPARATOR;
+        long now = System.currentTimeMillis();
+        List<String> expiredKeys = new ArrayList<>();
+        entries.forEach((id, checkedAt) -> {
+            if (id.startsWith(prefix) && isExpired(kind, checkedAt, now)) {
+                expiredKeys.add(id.substring(prefix.length()));
+            }
+        });
+        if (expiredKeys.isEmpty()) {
+            return 0;
+        }
+
+        List<CompletableFuture<DownloadResult>> checks = new ArrayList<>();
+        for (String key : expiredKeys) {
+            checks.add(checker.apply(key));
+        }
+        int stillMissing = 0;
+        for (int i = 0; i < checks.size(); i++) {
+            DownloadResult result = checks.get(i).join();
+            if (result == DownloadResult.NOT_FOUND) {
+                recordMissing(kind, expiredKeys.get(i));
+                stillMissing++;
+            } else if (result == DownloadResult.FOUND) {
+                clear(kind, expiredKeys.get(i));
+            }
+        }
+        System.out.println("[INFO] Negative cache sweep (" + kind + "): " + expiredKeys.size()
+                + " re-checked, " + stillMissing + " still missing");
+        return expiredKeys.size();
+    }
+
+    private static boolean isExpired(Kind kind, long checkedAt, long now) {
+        return now - checkedAt >= kind.ttlMillis;
+    }
+
+    private static String id(Kind kind, String key) {
+        return kind.name() + SEPARATOR + key;
+    }
+
+    private static void load() {
+        if (!Files.exists(CACHE_FILE)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(CACHE_FILE)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int separator = line.lastIndexOf(SEPARATOR);
+                if (separator <= 0) {
+                    continue;
+                }
+                try {
+                    entries.merge(migrate(line.substring(0, separator)), Long.parseLong(line.substring(separator + 1)), Math::max);
+                } catch (NumberFormatException e) {
+                    // Ignore corrupt lines, the probe will simply run again
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("[WARN] Failed to read " + CACHE_FILE + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Rewrites a page key recorded under the legacy base URL to the page's canonical URL on the configured
+     * primary source, so those 404s are not probed again
+     */
+    private static String migrate(String id) {
+        if (!id.startsWith(LEGACY_PAGE_PREFIX)) {
+            return id;
+        }
+        Matcher path = LEGACY_PAGE_PATH.matcher(id.substring(LEGACY_PAGE_PREFIX.length()));
+        if (!path.matches()) {
+            return id;
+        }
+        String migrated = id(Kind.PAGE, new PageRef(path.group(1), path.group(2), path.group(3), path.group(4)).url());
+        if (!migrated.equals(id)) {
+            dirty = true;
+        }
+        return migrated;
+    }
+
+    /**
+     * Writes the cache to disk if it changed, dropping entries older than twice their TTL
+     */
+    public static void save() {
+        if (!dirty || !Files.isDirectory(CACHE_FILE.getParent())) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Path temp = CACHE_FILE.resolveSibling(CACHE_FILE.getFileName() + ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(temp)) {
+                for (Map.Entry<String, Long> entry : entries.entrySet()) {
+                    Kind kind = Kind.valueOf(entry.getKey().substring(0, entry.getKey().indexOf(SEPARATOR)));
+                    if (now - entry.getValue() > 2 * kind.ttlMillis) {
+                        continue;
+                    }
+                    writer.write(entry.getKey() + SEPARATOR + entry.getValue());
+                    writer.newLine();
+                }
+            }
+            Files.move(temp, CACHE_FILE, StandardCopyOption.REPLACE_EXISTING);
+            dirty = false;
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("[WARN] Failed to write " + CACHE_FILE + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Prints how many requests the cache avoided during this run
+     */
+    public static void printSummary() {
+        System.out.println("[INFO] Negative cache: " + entries.size() + " entries, " + avoidedRequests.get() + " probes avoided");
+    }
+}
@@ -0,0 +1,31 @@
+package d1;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for downloading one page, covering every attempt until it was saved or given up on
+ */
+@Name("d1.PageDownload")
+@Label("Page Download")
+@Category("Manga Downloader")
+@Description("A page downloaded by DownloadImage.readFile, including retries")
+public class PageDownloadEvent extends Event {
+
+    @Label("URL")
+    public String url;
+
+    @Label("Result")
+    public String result;
+
+    @Label("Attempts")
+    public int attempts;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+}
@@ -0,0 +1,195 @@
+package d1;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fetches the pages of a chapter with a window of N pages in flight.
+ * The last page is located with an exponential-then-binary search over page numbers,
+ * so the chapter finishes in roughly the time of its slowest page instead of the sum of all pages.
+ */
+public class PageFetcher {
+
+    private static final int DEFAULT_WINDOW = Integer.getInteger("manga.pages.window", 8);
+    private static final int MAX_PAGES = 999;
+
+    private static final ExecutorService PAGE_EXECUTOR = DownloadScheduler.shared();
+
+    /**
+     * Downloads a single page; only NOT_FOUND marks the end of the chapter
+     */
+    @FunctionalInterface
+    public interface PageTask {
+        DownloadResult fetch(int pageNumber);
+    }
+
+    private final PageTask task;
+    private final int window;
+    private final Semaphore inFlight;
+    private final Map<Integer, CompletableFuture<DownloadResult>> pages = new ConcurrentHashMap<>();
+    private final AtomicInteger lowestMiss = new AtomicInteger(Integer.MAX_VALUE);
+    private int scheduledUpTo = 0;
+    private int failedPages = 0;
+
+    public PageFetcher(PageTask task) {
+        this(task, DEFAULT_WINDOW);
+    }
+
+    public PageFetcher(PageTask task, int window) {
+        this.task = task;
+        this.window = Math.max(1, window);
+        this.inFlight = new Semaphore(this.window);
+    }
+
+    /**
+     * Fetches every page of the chapter
+     * @param expectedPages Page count of an earlier chapter used to pre-size the window, or 0 if unknown
+     * @return Number of pages downloaded
+     */
+    public int fetchAll(int expectedPages) {
+        int lastHit = 0;
+        int firstMiss = -1;
+        // Set while the upper end of the bracket is a failed probe rather than a definite 404
+        boolean endUnknown = false;
+
+        // Bracket the end of the chapter with exponential steps
+        int probe = expectedPages > 0 ? expectedPages : window;
+        if (expectedPages > 0) {
+            // Start the probe for the expected last page before filling the window behind it
+            probeAsync(probe);
+            scheduleSpeculative(expectedPages);
+        }
+        while (firstMiss < 0) {
+            if (probe > MAX_PAGES) {
+                firstMiss = MAX_PAGES + 1;
+                continue;
+            }
+            DownloadResult result = await(probeAsync(probe));
+            if (result == DownloadResult.FOUND) {
+                lastHit = probe;
+                scheduleUpTo(lastHit);
+                probe *= 2;
+            } else {
+                // A failure says nothing about the pages above it, so it stops the gallop like a miss
+                firstMiss = probe;
+                endUnknown = result != DownloadResult.NOT_FOUND;
+            }
+        }
+
+        // Binary search inside the bracket
+        while (firstMiss - lastHit > 1) {
+            int mid = lastHit + (firstMiss - lastHit) / 2;
+            DownloadResult result = await(probeAsync(mid));
+            if (result == DownloadResult.FOUND) {
+                lastHit = mid;
+                scheduleUpTo(lastHit);
+            } else {
+                firstMiss = mid;
+                endUnknown = result != DownloadResult.NOT_FOUND;
+            }
+        }
+
+        scheduleUpTo(lastHit);
+        int downloaded = countDownloaded(lastHit);
+        if (endUnknown) {
+            // The page after the last one found failed, so the chapter may go on
+            failedPages++;
+        }
+        return downloaded;
+    }
+
+    private CompletableFuture<DownloadResult> probeAsync(int pageNumber) {
+        return pages.computeIfAbsent(pageNumber,
+                p -> CompletableFuture.supplyAsync(() -> fetch(p), PAGE_EXECUTOR));
+    }
+
+    private DownloadResult fetch(int pageNumber) {
+        DownloadResult result = task.fetch(pageNumber);
+        if (result == DownloadResult.NOT_FOUND) {
+            lowestMiss.accumulateAndGet(pageNumber, Math::min);
+        }
+        return result;
+    }
+
+    /**
+     * Queues pages up to a known-good page number through the window
+     */
+    private void scheduleUpTo(int lastPage) {
+        schedule(lastPage, false);
+    }
+
+    /**
+     * Queues pages up to a guessed page number, stopping as soon as a miss shows the guess is too high
+     */
+    private void scheduleSpeculative(int lastPage) {
+        schedule(lastPage, true);
+    }
+
+    private void schedule(int lastPage, boolean speculative) {
+        while (scheduledUpTo < lastPage) {
+            int pageNumber = scheduledUpTo + 1;
+            if (speculative && pageNumber > lowestMiss.get()) {
+                return;
+            }
+            scheduledUpTo = pageNumber;
+            if (pages.containsKey(pageNumber)) {
+                continue;
+            }
+            try {
+                inFlight.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            pages.computeIfAbsent(pageNumber, p -> CompletableFuture.supplyAsync(() -> {
+                try {
+                    return fetch(p);
+                } finally {
+                    inFlight.release();
+                }
+            }, PAGE_EXECUTOR));
+        }
+    }
+
+    private int countDownloaded(int lastPage) {
+        int downloaded = 0;
+        for (int p = 1; p <= lastPage; p++) {
+            CompletableFuture<DownloadResult> future = pages.get(p);
+            DownloadResult result = future == null ? DownloadResult.TRANSIENT : await(future);
+            if (result == DownloadResult.FOUND) {
+                downloaded++;
+            } else if (result != DownloadResult.NOT_FOUND) {
+                failedPages++;
+            }
+        }
+        // Speculative pages past the end are misses but still have to settle before returning
+        pages.values().forEach(PageFetcher::await);
+        return downloaded;
+    }
+
+    /**
+     * Returns the number of pages that failed for a reason other than 404 in the last fetchAll, including
+     * the page after the last one found if its failure left the end of the chapter unknown.
+     * A chapter with failed pages is incomplete.
+     */
+    public int getFailedPages() {
+        return failedPages;
+    }
+
+    private static DownloadResult await(CompletableFuture<DownloadResult> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return DownloadResult.TRANSIENT;
+        } catch (ExecutionException e) {
+            System.err.println("[ERROR] Page download failed: " + e.getCause().getMessage());
+            return DownloadResult.FATAL;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package d1;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Recognizes page images by their magic bytes and checks that they end the way their format ends,
+ * which catches zero-byte files, HTML error pages saved as images and transfers that broke off.
+ * Only the first HEAD_BYTES and last TAIL_BYTES of a page are looked at, never the whole file.
+ * Downloads use a Checker to validate pages as they stream in; CleanupEmptyChapters checks pages on disk.
+ */
+public final class PageIntegrity {
+
+    public static final int HEAD_BYTES = 16;
+    // Long enough to reach past the trailers some tools append to JPEGs after the end-of-image marker
+    public static final int TAIL_BYTES = 1024;
+
+    private static final byte[] JPEG_START = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF};
+    private static final byte[] JPEG_END = {(byte) 0xFF, (byte) 0xD9};
+    private static final byte[] PNG_START = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    // IEND chunk type followed by its fixed CRC
+    private static final byte[] PNG_END = {'I', 'E', 'N', 'D', (byte) 0xAE, 'B', 0x60, (byte) 0x82};
+    private static final byte[] GIF_START = {'G', 'I', 'F', '8'};
+    private static final byte[] RIFF = {'R', 'I', 'F', 'F'};
+    private static final byte[] WEBP = {'W', 'E', 'B', 'P'};
+
+    private PageIntegrity() {
+    }
+
+    /**
+     * Checks a page while it streams in, keeping only its first and last bytes
+     */
+    public static final class Checker {
+        private final byte[] head = new byte[HEAD_BYTES];
+        private int headLength = 0;
+        // Ring buffer holding the last TAIL_BYTES bytes seen
+        private final byte[] tail = new byte[TAIL_BYTES];
+        private long size = 0;
+
+        /**
+         * Starts a check of content received in full from the first byte
+         */
+        public Checker() {
+        }
+
+        /**
+         * Starts a check of a partial file that a resumed transfer appends to, reading only its first and last bytes
+         */
+        public static Checker resume(Path partPath) throws IOException {
+            Checker checker = new Checker();
+            try (FileChannel channel = FileChannel.open(partPath, StandardOpenOption.READ)) {
+                long partSize = channel.size();
+                checker.headLength = readAt(channel, checker.head, 0);
+                byte[] last = new byte[(int) Math.min(partSize, TAIL_BYTES)];
+                int lastLength = readAt(channel, last, partSize - last.length);
+                checker.size = partSize - lastLength;
+                checker.addToTail(last, 0, lastLength);
+            }
+            return checker;
+        }
+
+        /**
+         * Feeds the next bytes of the content
+         */
+        public void update(byte[] data, int offset, int length) {
+            if (headLength < HEAD_BYTES) {
+                int copied = Math.min(HEAD_BYTES - headLength, length);
+                System.arraycopy(data, offset, head, headLength, copied);
+                headLength += copied;
+            }
+            addToTail(data, offset, length);
+        }
+
+        private void addToTail(byte[] data, int offset, int length) {
+            for (int i = Math.max(0, length - TAIL_BYTES); i < length; i++) {
+                tail[(int) ((size + i) % TAIL_BYTES)] = data[offset + i];
+            }
+            size += length;
+        }
+
+        /**
+         * Returns what is wrong with the start of the content once its head has arrived, otherwise null
+         */
+        public String checkHead() {
+            return headLength == HEAD_BYTES && sniff(head, headLength) == null ? "not an image" : null;
+        }
+
+        /**
+         * Returns what is wrong with the whole content, or null if it looks like a complete image
+         */
+        public String finish() {
+            if (size == 0) {
+                return "empty";
+            }
+            String type = sniff(head, headLength);
+            if (type == null) {
+                return "not an image";
+            }
+            int tailLength = (int) Math.min(size, TAIL_BYTES);
+            byte[] ordered = new byte[tailLength];
+            for (int i = 0; i < tailLength; i++) {
+                ordered[i] = tail[(int) ((size - tailLength + i) % TAIL_BYTES)];
+            }
+            return isComplete(type, head, ordered, tailLength, size) ? null : "truncated";
+        }
+
+        /**
+         * Returns a fingerprint of the content seen so far, from its length, head and tail,
+         * so the same body served again can be recognized
+         */
+        public long fingerprint() {
+            return (size * 31 + Arrays.hashCode(head)) * 31 + Arrays.hashCode(tail);
+        }
+    }
+
+    /**
+     * Returns true if a response with this Content-Type may carry an image; a missing header is accepted
+     */
+    public static boolean isImageContentType(String contentType) {
+        if (contentType == null || contentType.isBlank()) {
+            return true;
+        }
+        String type = contentType.trim().toLowerCase(Locale.ROOT);
+        return type.startsWith("image/") || type.startsWith("application/octet-stream") || type.startsWith("binary/octet-stream");
+    }
+
+    /**
+     * Returns the file type the content starts like, such as ".jpg", or null if it is no known image
+     * @param head The first bytes of the content
+     * @param length Number of valid bytes in head
+     */
+    public static String sniff(byte[] head, int length) {
+        if (startsWith(head, length, JPEG_START, 0)) {
+            return ".jpg";
+        }
+        if (startsWith(head, length, PNG_START, 0)) {
+            return ".png";
+        }
+        if (startsWith(head, length, RIFF, 0) && startsWith(head, length, WEBP, 8)) {
+            return ".webp";
+        }
+        if (startsWith(head, length, GIF_START, 0)) {
+            return ".gif";
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if content of the given type ends where its format says it ends
+     * @param type File type returned by sniff
+     * @param head The first bytes of the content; WebP declares its length there
+     * @param tail The last bytes of the content
+     * @param tailLength Number of valid bytes at the start of tail
+     * @param size Total length of the content
+     */
+    public static boolean isComplete(String type, byte[] head, byte[] tail, int tailLength, long size) {
+        switch (type) {
+            case ".jpg":
+                // Padding, vendor trailers or appended metadata may follow the end-of-image marker. The marker
+                // cannot occur inside entropy-coded data, where every 0xFF is followed by 0x00 or a restart marker.
+                return indexOf(tail, tailLength, JPEG_END) >= 0;
+            case ".png":
+                return endsWith(tail, tailLength, PNG_END);
+            case ".gif":
+                return tailLength > 0 && tail[tailLength - 1] == 0x3B;
+            case ".webp":
+                long riffSize = (head[4] & 0xFFL) | (head[5] & 0xFFL) << 8 | (head[6] & 0xFFL) << 16 | (head[7] & 0xFFL) << 24;
+                // Chunks are padded to an even length
+                return size == riffSize + 8 || size == riffSize + 9;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Checks a page on disk by reading its first and last bytes
+     * @return null if the page looks whole, otherwise what is wrong with it
+     */
+    public static String check(Path page) throws IOException {
+        try (FileChannel channel = FileChannel.open(page, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size == 0) {
+                return "empty";
+            }
+            byte[] head = new byte[HEAD_BYTES];
+            int headLength = readAt(channel, head, 0);
+            String type = sniff(head, headLength);
+            if (type == null) {
+                return "not an image";
+            }
+            byte[] tail = new byte[TAIL_BYTES];
+            int tailLength = readAt(channel, tail, Math.max(0, size - TAIL_BYTES));
+            return isComplete(type, head, tail, tailLength, size) ? null : "truncated";
+        }
+    }
+
+    /**
+     * Checks a page read from a stream, such as an archive entry, skipping over everything between head and tail
+     * @param size Length of the page
+     * @return null if the page looks whole, otherwise what is wrong with it
+     */
+    public static String check(InputStream in, long size) throws IOException {
+        if (size == 0) {
+            return "empty";
+        }
+        byte[] head = in.readNBytes(HEAD_BYTES);
+        String type = sniff(head, head.length);
+        if (type == null) {
+            return "not an image";
+        }
+        byte[] tail;
+        if (size <= HEAD_BYTES + TAIL_BYTES) {
+            // Head and tail overlap, so the tail is taken from the whole page
+            byte[] rest = in.readNBytes(TAIL_BYTES);
+            byte[] all = Arrays.copyOf(head, head.length + rest.length);
+            System.arraycopy(rest, 0, all, head.length, rest.length);
+            tail = Arrays.copyOfRange(all, Math.max(0, all.length - TAIL_BYTES), all.length);
+        } else {
+            in.skipNBytes(size - HEAD_BYTES - TAIL_BYTES);
+            tail = in.readNBytes(TAIL_BYTES);
+        }
+        return isComplete(type, head, tail, tail.length, size) ? null : "truncated";
+    }
+
+    private static int readAt(FileChannel channel, byte[] target, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(target);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+        return buffer.position();
+    }
+
+    private static boolean startsWith(byte[] data, int length, byte[] prefix, int offset) {
+        if (length < offset + prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] data, int length, byte[] pattern) {
+        for (int i = length - pattern.length; i >= 0; i--) {
+            if (startsWith(data, length, pattern, i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean endsWith(byte[] data, int length, byte[] suffix) {
+        return length >= suffix.length && startsWith(data, length, suffix, length - suffix.length);
+    }
+}
@@ -0,0 +1,18 @@
+package d1;
+
+/**
+ * A page of a series by its coordinates rather than by a URL, so it can be located on every mirror.
+ * @param series Manga name
+ * @param chapter Chapter number already in the series' number format, e.g. "007"
+ * @param page Page number, e.g. "01"; empty for the prefix of a whole chapter
+ * @param fileType File extension including the dot, e.g. ".webp"; empty for a prefix
+ */
+public record PageRef(String series, String chapter, String page, String fileType) {
+
+    /**
+     * Returns the canonical URL of the page, which caches and logs are keyed by
+     */
+    public String url() {
+        return PageSources.canonicalUrl(this);
+    }
+}
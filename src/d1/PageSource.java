@@ -0,0 +1,29 @@
+package d1;
+
+/**
+ * Where the pages of a series can be downloaded from. PageSources holds the configured mirrors, one
+ * PageSource each; further implementations can be plugged in as services (uses d1.PageSource).
+ * Mirrors are expected to serve identical files, so a download may resume from another mirror.
+ */
+public interface PageSource {
+
+    /**
+     * Returns a stable name for the mirror, used for its statistics and in the run summary
+     */
+    String name();
+
+    /**
+     * Returns the URL of a page on this mirror
+     * @param chapter Chapter number already in the series' number format, e.g. "007"
+     * @param page Page number, e.g. "01"
+     * @param fileType File extension including the dot, e.g. ".webp"
+     */
+    String pageUrl(String series, String chapter, String page, String fileType);
+
+    /**
+     * Returns false if this mirror does not carry the series
+     */
+    default boolean serves(String series) {
+        return true;
+    }
+}
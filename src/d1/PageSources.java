@@ -0,0 +1,268 @@
+package d1;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registry of the mirrors pages are downloaded from, and the policy for choosing between them.
+ * Global mirrors come from manga.sources (comma-separated, default manga.baseUrl) followed by any PageSource
+ * services; a series can add its own with mirror= in data.txt. Each entry is either a base URL laid out like
+ * the original site, or a template with {series}, {chapter}, {page} and {ext} placeholders.
+ *
+ * Pages are passed around as PageRefs. The URL on the first global mirror is the canonical URL of a page,
+ * which caches and logs keep using, and candidates returns the page on every mirror, best first. Mirrors are ranked by the smoothed time to
+ * first byte, penalized by their error rate, with a small share of requests sent elsewhere so the ranking
+ * stays current. A page request still waiting for its headers after the manga.hedge.percentile of recent
+ * first-byte times gets a second, hedged request to the next mirror (see HttpEngine.sendHedged).
+ */
+public final class PageSources {
+
+    private static final String DEFAULT_BASE_URL = System.getProperty("manga.baseUrl", "https://zuragtnom.site/uploads/manga/");
+    private static final boolean HEDGING = Boolean.parseBoolean(System.getProperty("manga.hedge", "true"));
+    private static final double HEDGE_PERCENTILE = Double.parseDouble(System.getProperty("manga.hedge.percentile", "0.95"));
+    private static final long HEDGE_MIN_DELAY_MS = Long.getLong("manga.hedge.minDelayMs", 50);
+    private static final long HEDGE_INITIAL_DELAY_MS = Long.getLong("manga.hedge.initialDelayMs", 2000);
+    private static final double EXPLORE_RATE = 0.05;
+    private static final double ERROR_PENALTY = 4.0;
+    private static final double SMOOTHING = 0.2;
+    private static final int LATENCY_SAMPLES = 256;
+    private static final int MIN_SAMPLES = 32;
+    private static final int MAX_TRACKED_URLS = 8192;
+
+    private static final List<PageSource> globalSources = new CopyOnWriteArrayList<>();
+    private static final Map<String, List<PageSource>> seriesSources = new ConcurrentHashMap<>();
+    private static final Map<String, MirrorStats> stats = new ConcurrentHashMap<>();
+
+    // Mirror URLs handed out recently -> their mirror, so request outcomes can be credited to the mirror
+    private static final Map<String, String> urlMirrors = lruMap();
+
+    // Ring of recent first-byte times of page downloads, for the hedge delay
+    private static final long[] latencies = new long[LATENCY_SAMPLES];
+    private static long latencyCount = 0;
+    private static volatile long hedgeDelayMs = HEDGE_INITIAL_DELAY_MS;
+    private static final AtomicLong hedgesSent = new AtomicLong();
+    private static final AtomicLong hedgesWon = new AtomicLong();
+
+    static {
+        for (String spec : System.getProperty("manga.sources", DEFAULT_BASE_URL).split(",")) {
+            if (!spec.isBlank()) {
+                globalSources.add(fromSpec(spec.trim()));
+            }
+        }
+        ServiceLoader.load(PageSource.class).forEach(globalSources::add);
+    }
+
+    private PageSources() {
+    }
+
+    /**
+     * Observed behaviour of one mirror
+     */
+    private static final class MirrorStats {
+        double latencyMs = -1;
+        double errorRate = 0;
+        long requests = 0;
+
+        synchronized void record(long latency, boolean failed) {
+            requests++;
+            errorRate += SMOOTHING * ((failed ? 1 : 0) - errorRate);
+            if (!failed) {
+                latencyMs = latencyMs < 0 ? latency : latencyMs + SMOOTHING * (latency - latencyMs);
+            }
+        }
+
+        synchronized double score() {
+            // Mirrors without a measurement yet go first so they get one
+            return latencyMs < 0 ? 0 : latencyMs * (1 + ERROR_PENALTY * errorRate);
+        }
+    }
+
+    /**
+     * Mirror laid out like the original site: base/series/chapters/ch007/01.webp
+     */
+    private record BaseUrlSource(String base) implements PageSource {
+        @Override
+        public String name() {
+            return base;
+        }
+
+        @Override
+        public String pageUrl(String series, String chapter, String page, String fileType) {
+            return base + series + "/chapters/ch" + chapter + "/" + page + fileType;
+        }
+    }
+
+    /**
+     * Mirror with its own layout, e.g. https://mirror.example/{series}/{chapter}/{page}{ext}
+     */
+    private record TemplateSource(String template) implements PageSource {
+        @Override
+        public String name() {
+            return template;
+        }
+
+        @Override
+        public String pageUrl(String series, String chapter, String page, String fileType) {
+            return template.replace("{series}", series).replace("{chapter}", chapter)
+                    .replace("{page}", page).replace("{ext}", fileType);
+        }
+    }
+
+    private static PageSource fromSpec(String spec) {
+        if (spec.contains("{")) {
+            return new TemplateSource(spec);
+        }
+        return new BaseUrlSource(spec.endsWith("/") ? spec : spec + "/");
+    }
+
+    private static Map<String, String> lruMap() {
+        return new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > MAX_TRACKED_URLS;
+            }
+        };
+    }
+
+    /**
+     * Adds a mirror for one series, e.g. from a mirror= column in data.txt; it is ranked like the global ones
+     */
+    public static void addMirror(String series, String spec) {
+        List<PageSource> sources = seriesSources.computeIfAbsent(series, s -> new CopyOnWriteArrayList<>());
+        PageSource source = fromSpec(spec);
+        if (sources.stream().noneMatch(existing -> existing.name().equals(source.name()))) {
+            sources.add(source);
+        }
+    }
+
+    /**
+     * Returns the canonical URL of a page, i.e. its URL on the first global mirror
+     */
+    public static String canonicalUrl(PageRef page) {
+        return globalSources.get(0).pageUrl(page.series(), page.chapter(), page.page(), page.fileType());
+    }
+
+    /**
+     * Returns the URLs of a page on every mirror that carries its series, best mirror first
+     */
+    public static List<String> candidates(PageRef page) {
+        List<PageSource> sources = sourcesFor(page.series());
+        if (sources.size() < 2) {
+            return List.of(sources.isEmpty() ? page.url()
+                    : sources.get(0).pageUrl(page.series(), page.chapter(), page.page(), page.fileType()));
+        }
+
+        sources.sort(Comparator.comparingDouble(source -> statsFor(source.name()).score()));
+        if (ThreadLocalRandom.current().nextDouble() < EXPLORE_RATE) {
+            sources.add(0, sources.remove(1 + ThreadLocalRandom.current().nextInt(sources.size() - 1)));
+        }
+        List<String> urls = new ArrayList<>(sources.size());
+        synchronized (urlMirrors) {
+            for (PageSource source : sources) {
+                String url = source.pageUrl(page.series(), page.chapter(), page.page(), page.fileType());
+                urlMirrors.put(url, source.name());
+                urls.add(url);
+            }
+        }
+        return urls;
+    }
+
+    private static List<PageSource> sourcesFor(String series) {
+        List<PageSource> sources = new ArrayList<>(seriesSources.getOrDefault(series, List.of()));
+        for (PageSource source : globalSources) {
+            if (source.serves(series)) {
+                sources.add(source);
+            }
+        }
+        return sources;
+    }
+
+    private static MirrorStats statsFor(String mirror) {
+        return stats.computeIfAbsent(mirror, m -> new MirrorStats());
+    }
+
+    /**
+     * Records the outcome of a request, for the mirror ranking and the hedge delay
+     * @param status HTTP status, or -1 if the request failed without a response
+     * @param latencyMs Time until the response headers arrived
+     */
+    static void recordOutcome(String url, String method, int status, long latencyMs) {
+        String mirror;
+        synchronized (urlMirrors) {
+            mirror = urlMirrors.get(url);
+        }
+        if (mirror != null) {
+            statsFor(mirror).record(latencyMs, DownloadResult.fromStatus(status) == DownloadResult.TRANSIENT);
+        }
+        if ("GET".equals(method) && status >= 200 && status < 300) {
+            recordLatency(latencyMs);
+        }
+    }
+
+    /**
+     * Records a request that was cancelled before its headers arrived, e.g. the loser of a hedged request.
+     * Its time so far is a lower bound of the mirror's latency; without it a mirror that always loses would
+     * never be measured and would keep ranking first.
+     */
+    static void recordAbandoned(String url, long elapsedMs) {
+        String mirror;
+        synchronized (urlMirrors) {
+            mirror = urlMirrors.get(url);
+        }
+        if (mirror != null) {
+            statsFor(mirror).record(elapsedMs, false);
+        }
+    }
+
+    private static synchronized void recordLatency(long latencyMs) {
+        latencies[(int) (latencyCount++ % LATENCY_SAMPLES)] = latencyMs;
+        if (latencyCount >= MIN_SAMPLES && latencyCount % MIN_SAMPLES == 0) {
+            long[] sorted = Arrays.copyOf(latencies, (int) Math.min(latencyCount, LATENCY_SAMPLES));
+            Arrays.sort(sorted);
+            int index = (int) Math.min(sorted.length - 1, Math.floor(HEDGE_PERCENTILE * sorted.length));
+            hedgeDelayMs = Math.max(HEDGE_MIN_DELAY_MS, sorted[index]);
+        }
+    }
+
+    /**
+     * Returns how long a page request waits for its headers before a hedged request is sent, or -1 if hedging is off
+     */
+    public static long hedgeDelayMillis() {
+        return HEDGING ? hedgeDelayMs : -1;
+    }
+
+    static void recordHedgeSent() {
+        hedgesSent.incrementAndGet();
+    }
+
+    static void recordHedgeWon() {
+        hedgesWon.incrementAndGet();
+    }
+
+    /**
+     * Prints the ranking inputs of every mirror that was used, and how often hedging paid off
+     */
+    public static void printSummary() {
+        if (stats.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<String, MirrorStats> entry : stats.entrySet()) {
+            MirrorStats mirror = entry.getValue();
+            synchronized (mirror) {
+                System.out.println(String.format("[INFO] Mirror %s | Requests: %d | Avg first byte: %.0f ms | Error rate: %.1f%%",
+                        entry.getKey(), mirror.requests, Math.max(0, mirror.latencyMs), mirror.errorRate * 100));
+            }
+        }
+        System.out.println("[INFO] Hedged requests: " + hedgesSent.get() + " sent, " + hedgesWon.get()
+                + " won | Hedge delay: " + hedgeDelayMs + " ms");
+    }
+}
@@ -0,0 +1,188 @@
+package d1;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed store of page images in Mangas/.store/ab/abcdef..., keyed by SHA-256.
+ * Every unique page is kept once and chapter folders hard-link to it, so repeated credit pages,
+ * banners and blank separators take no extra space. Pages are only ever replaced by renaming a
+ * new file over them, never written in place, so a shared blob cannot be changed through a chapter.
+ * Enabled with manga.store.dedup=true; not used with .cbz output, where pages do not stay on disk.
+ */
+public final class PageStore {
+
+    public static final Path STORE_DIR = Paths.get("Mangas", ".store");
+    private static final String LINK_SUFFIX = ".link";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static volatile boolean enabled = Boolean.getBoolean("manga.store.dedup") && !ChapterArchive.isEnabled();
+
+    private static final AtomicLong storedBlobs = new AtomicLong();
+    private static final AtomicLong linkedPages = new AtomicLong();
+    private static final AtomicLong savedBytes = new AtomicLong();
+
+    private PageStore() {
+    }
+
+    /**
+     * Returns true if downloaded pages are deduplicated through the store
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enables the store for this run, e.g. for the one-off dedup pass
+     */
+    public static void enable() {
+        enabled = true;
+    }
+
+    /**
+     * Returns a new digest for hashing a page while it streams in
+     */
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Feeds the current content of a file into a digest
+     */
+    public static void update(MessageDigest digest, Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+    }
+
+    /**
+     * Hashes a file that is already on disk
+     */
+    public static String hash(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        update(digest, file);
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Replaces a page with a hard link to the stored copy of the same content, storing it first if it is new
+     * @param pagePath The downloaded page
+     * @param digest Digest of the page content, consumed by this call
+     * @return true if the page now shares an existing blob
+     */
+    public static boolean link(Path pagePath, MessageDigest digest) throws IOException {
+        return link(pagePath, HexFormat.of().formatHex(digest.digest()));
+    }
+
+    /**
+     * Replaces a page with a hard link to the stored copy of the same content, storing it first if it is new
+     * @param pagePath The page
+     * @param hash Hex SHA-256 of the page content
+     * @return true if the page now shares an existing blob
+     */
+    public static boolean link(Path pagePath, String hash) throws IOException {
+        if (!enabled) {
+            return false;
+        }
+        Path blob = STORE_DIR.resolve(hash.substring(0, 2)).resolve(hash);
+        try {
+            while (true) {
+                if (Files.exists(blob)) {
+                    if (Files.isSameFile(blob, pagePath)) {
+                        return false;
+                    }
+                    long size = Files.size(pagePath);
+                    Path linkPath = pagePath.resolveSibling("." + pagePath.getFileName() + LINK_SUFFIX);
+                    Files.deleteIfExists(linkPath);
+                    Files.createLink(linkPath, blob);
+                    moveOver(linkPath, pagePath);
+                    linkedPages.incrementAndGet();
+                    savedBytes.addAndGet(size);
+                    return true;
+                }
+                Files.createDirectories(blob.getParent());
+                try {
+                    Files.createLink(blob, pagePath);
+                    storedBlobs.incrementAndGet();
+                    return false;
+                } catch (FileAlreadyExistsException e) {
+                    // Another thread stored the same content first, link to its blob instead
+                }
+            }
+        } catch (UnsupportedOperationException e) {
+            enabled = false;
+            System.err.println("[WARN] Hard links are not supported here, page deduplication disabled");
+            return false;
+        }
+    }
+
+    /**
+     * Deletes blobs that no chapter links to any more. Link counts are only available on POSIX file systems,
+     * so nothing is pruned elsewhere.
+     * @return Number of blobs deleted
+     */
+    public static int pruneOrphans() throws IOException {
+        if (!Files.isDirectory(STORE_DIR)) {
+            return 0;
+        }
+        if (!STORE_DIR.getFileSystem().supportedFileAttributeViews().contains("unix")) {
+            System.err.println("[WARN] Link counts are not available on this file system, page store not pruned");
+            return 0;
+        }
+        int pruned = 0;
+        try (Stream<Path> blobs = Files.walk(STORE_DIR)) {
+            Iterator<Path> iterator = blobs.filter(Files::isRegularFile).iterator();
+            while (iterator.hasNext()) {
+                Path blob = iterator.next();
+                Object links = Files.getAttribute(blob, "unix:nlink");
+                if (links instanceof Integer && (Integer) links <= 1) {
+                    Files.delete(blob);
+                    pruned++;
+                }
+            }
+        }
+        return pruned;
+    }
+
+    private static void moveOver(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    public static long getSavedBytes() {
+        return savedBytes.get();
+    }
+
+    /**
+     * Prints how much space deduplication saved during this run
+     */
+    public static void printSummary() {
+        if (enabled || linkedPages.get() > 0) {
+            System.out.println("[INFO] Page store: " + storedBlobs.get() + " new blobs, " + linkedPages.get()
+                    + " duplicate pages linked, " + savedBytes.get() + " bytes saved");
+        }
+    }
+}
@@ -0,0 +1,379 @@
+package d1;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Optional post-download stage that re-encodes or downscales pages with javax.imageio, following a
+ * per-series rule from the optional columns of data.txt (see SeriesOptions): format[:quality][:maxWidth], e.g. jpg:85:1600.
+ * Pages are handed over with a non-blocking offer to a bounded queue served by a pool of CPU workers, so
+ * download threads never wait for encoding; pages that find the queue full stay as downloaded and are
+ * counted as skipped. Running this class directly transcodes every page of the library that a rule covers.
+ * Pages kept in .cbz archives are not transcoded. Workers and queue size are read from
+ * manga.transcode.workers and manga.transcode.queue; manga.transcode=false turns the stage off.
+ */
+public final class PageTranscoder {
+
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("manga.transcode", "true"));
+    private static final int WORKERS = Integer.getInteger("manga.transcode.workers", Runtime.getRuntime().availableProcessors());
+    private static final int QUEUE_SIZE = Integer.getInteger("manga.transcode.queue", 256);
+    private static final String TEMP_SUFFIX = ".transcode";
+    private static final String MANGAS_DIR = "Mangas";
+    private static final String CHAPTER_PREFIX = "Chapter ";
+
+    private static final Map<String, Rule> rules = new ConcurrentHashMap<>();
+    private static volatile ThreadPoolExecutor workers;
+
+    private static final AtomicLong transcodedPages = new AtomicLong();
+    private static final AtomicLong unchangedPages = new AtomicLong();
+    private static final AtomicLong skippedPages = new AtomicLong();
+    private static final AtomicLong failedPages = new AtomicLong();
+    private static final AtomicLong savedBytes = new AtomicLong();
+    private static final AtomicInteger peakBacklog = new AtomicInteger();
+
+    /**
+     * How the pages of a series are re-encoded
+     */
+    public static final class Rule {
+        /** Target file type such as ".jpg" */
+        final String fileType;
+        /** JPEG quality from 0 to 1 */
+        final float quality;
+        /** Pages wider than this are scaled down, 0 keeps the width */
+        final int maxWidth;
+
+        private Rule(String fileType, float quality, int maxWidth) {
+            this.fileType = fileType;
+            this.quality = quality;
+            this.maxWidth = maxWidth;
+        }
+
+        /**
+         * Parses a rule such as "jpg:85:1600", "png::1200" or "jpg"
+         * @throws IllegalArgumentException if the rule is malformed or the format cannot be written
+         */
+        public static Rule parse(String text) {
+            String[] parts = text.trim().split(":", -1);
+            String format = parts[0].trim().toLowerCase(Locale.ROOT);
+            if (format.equals("jpeg")) {
+                format = "jpg";
+            }
+            if (!format.equals("jpg") && !format.equals("png")) {
+                throw new IllegalArgumentException("Unsupported transcode format: " + parts[0]);
+            }
+            int quality = parts.length > 1 && !parts[1].isBlank() ? Integer.parseInt(parts[1].trim()) : 85;
+            int maxWidth = parts.length > 2 && !parts[2].isBlank() ? Integer.parseInt(parts[2].trim()) : 0;
+            if (quality < 1 || quality > 100 || maxWidth < 0) {
+                throw new IllegalArgumentException("Invalid transcode rule: " + text);
+            }
+            return new Rule("." + format, quality / 100f, maxWidth);
+        }
+    }
+
+    private PageTranscoder() {
+    }
+
+    /**
+     * Sets the rule of a series, read from the optional columns of data.txt
+     * @param rule Rule text, or null/empty to leave the series' pages as downloaded
+     */
+    public static void setRule(String mangaName, String rule) {
+        if (rule == null || rule.isBlank()) {
+            rules.remove(mangaName);
+            return;
+        }
+        try {
+            rules.put(mangaName, Rule.parse(rule));
+        } catch (IllegalArgumentException e) {
+            System.err.println("[WARN] Ignoring transcode rule for " + mangaName + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns true if downloaded pages of the series are handed to the stage
+     */
+    public static boolean appliesTo(String mangaName) {
+        return ENABLED && !ChapterArchive.isEnabled() && rules.containsKey(mangaName);
+    }
+
+    /**
+     * Queues a downloaded page for transcoding without blocking; a full queue leaves the page as it is
+     */
+    public static void submit(String mangaName, LibraryManifest.Series manifest, int chapterIndex, Path pagePath) {
+        Rule rule = appliesTo(mangaName) ? rules.get(mangaName) : null;
+        if (rule == null) {
+            return;
+        }
+        long queuedAt = System.nanoTime();
+        ThreadPoolExecutor pool = workers();
+        try {
+            pool.execute(() -> {
+                Metrics.recordNanos("transcode.queueWait", System.nanoTime() - queuedAt);
+                transcode(mangaName, pagePath, rule, manifest, chapterIndex);
+            });
+            peakBacklog.accumulateAndGet(pool.getQueue().size(), Math::max);
+        } catch (RejectedExecutionException e) {
+            skippedPages.incrementAndGet();
+            Metrics.increment("transcode.skipped");
+        }
+    }
+
+    private static synchronized ThreadPoolExecutor workers() {
+        if (workers == null) {
+            AtomicInteger threadNumber = new AtomicInteger();
+            workers = new ThreadPoolExecutor(WORKERS, WORKERS, 30, TimeUnit.SECONDS, new ArrayBlockingQueue<>(QUEUE_SIZE), runnable -> {
+                Thread thread = new Thread(runnable, "transcode-" + threadNumber.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }, new ThreadPoolExecutor.AbortPolicy());
+            workers.allowCoreThreadTimeOut(true);
+        }
+        return workers;
+    }
+
+    /**
+     * Returns the number of pages waiting for a worker
+     */
+    public static int getBacklog() {
+        ThreadPoolExecutor current = workers;
+        return current == null ? 0 : current.getQueue().size();
+    }
+
+    /**
+     * Waits for every queued page to be transcoded; call before the manifests and validators are saved
+     */
+    public static void awaitIdle() {
+        ThreadPoolExecutor current;
+        synchronized (PageTranscoder.class) {
+            current = workers;
+            workers = null;
+        }
+        if (current == null) {
+            return;
+        }
+        current.shutdown();
+        try {
+            if (current.getQueue().size() > 0) {
+                System.out.println("[INFO] Waiting for " + current.getQueue().size() + " page(s) to be transcoded");
+            }
+            current.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            current.shutdownNow();
+        }
+    }
+
+    /**
+     * Re-encodes a single page, keeping the original if the result would not be smaller
+     */
+    private static void transcode(String mangaName, Path pagePath, Rule rule, LibraryManifest.Series manifest, int chapterIndex) {
+        long start = System.nanoTime();
+        String fileName = pagePath.getFileName().toString();
+        String baseName = fileName.substring(0, fileName.lastIndexOf('.'));
+        Path targetPath = pagePath.resolveSibling(baseName + rule.fileType);
+        Path tempPath = pagePath.resolveSibling("." + baseName + rule.fileType + TEMP_SUFFIX);
+        try {
+            BufferedImage image = ImageIO.read(pagePath.toFile());
+            if (image == null) {
+                // No reader for the format, e.g. WebP
+                unchangedPages.incrementAndGet();
+                return;
+            }
+            encode(prepare(image, rule), rule, tempPath);
+
+            long originalSize = Files.size(pagePath);
+            long newSize = Files.size(tempPath);
+            if (newSize >= originalSize) {
+                Files.delete(tempPath);
+                unchangedPages.incrementAndGet();
+                return;
+            }
+            moveIntoPlace(tempPath, targetPath);
+            if (!targetPath.equals(pagePath)) {
+                Files.delete(pagePath);
+            }
+            if (PageStore.isEnabled()) {
+                PageStore.link(targetPath, PageStore.hash(targetPath));
+            }
+            manifest.renamePage(chapterIndex, fileName, targetPath.getFileName().toString(), newSize);
+            DownloadJournal.renamePage(mangaName, chapterIndex, fileName, targetPath.getFileName().toString(), newSize);
+            PageValidators.recordTranscoded(targetPath, fileName);
+
+            transcodedPages.incrementAndGet();
+            savedBytes.addAndGet(originalSize - newSize);
+            Metrics.increment("transcode.pages");
+            Metrics.add("transcode.savedBytes", originalSize - newSize);
+        } catch (IOException | RuntimeException e) {
+            failedPages.incrementAndGet();
+            Metrics.increment("transcode.failed");
+            System.err.println("[WARN] Could not transcode " + pagePath + ": " + e.getMessage());
+            try {
+                Files.deleteIfExists(tempPath);
+            } catch (IOException ignored) {
+                // Hidden leftovers are removed by the next transcode of the page
+            }
+        } finally {
+            Metrics.recordNanos("transcode.duration", System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Scales the page down to the rule's width and drops transparency for JPEG output
+     */
+    private static BufferedImage prepare(BufferedImage image, Rule rule) {
+        boolean scale = rule.maxWidth > 0 && image.getWidth() > rule.maxWidth;
+        boolean flatten = rule.fileType.equals(".jpg") && image.getColorModel().hasAlpha();
+        if (!scale && !flatten) {
+            return image;
+        }
+        int width = scale ? rule.maxWidth : image.getWidth();
+        int height = scale ? Math.max(1, Math.round(image.getHeight() * (float) width / image.getWidth())) : image.getHeight();
+        int type = rule.fileType.equals(".jpg") ? BufferedImage.TYPE_INT_RGB
+                : image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage result = new BufferedImage(width, height, type);
+        Graphics2D graphics = result.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            if (type == BufferedImage.TYPE_INT_RGB) {
+                graphics.setColor(Color.WHITE);
+                graphics.fillRect(0, 0, width, height);
+            }
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return result;
+    }
+
+    private static void encode(BufferedImage image, Rule rule, Path tempPath) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersBySuffix(rule.fileType.substring(1));
+        if (!writers.hasNext()) {
+            throw new IOException("No image writer for " + rule.fileType);
+        }
+        ImageWriter writer = writers.next();
+        Files.deleteIfExists(tempPath);
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(tempPath.toFile())) {
+            writer.setOutput(out);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (rule.fileType.equals(".jpg")) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(rule.quality);
+            }
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    private static void moveIntoPlace(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Prints how many pages the stage transcoded and how much space it saved during this run
+     */
+    public static void printSummary() {
+        if (transcodedPages.get() + unchangedPages.get() + skippedPages.get() + failedPages.get() == 0) {
+            return;
+        }
+        System.out.println("[INFO] Transcoding: " + transcodedPages.get() + " pages transcoded, " + unchangedPages.get()
+                + " left as they were, " + skippedPages.get() + " skipped (queue full), " + failedPages.get() + " failed | "
+                + savedBytes.get() + " bytes saved | Peak backlog: " + peakBacklog.get());
+    }
+
+    /**
+     * Transcodes every page of the library that a rule in the data file covers, e.g. pages skipped earlier
+     */
+    public static void main(String[] args) throws IOException {
+        String dataFile = args.length > 0 ? args[0] : "data.txt";
+        try (Stream<String> lines = Files.lines(Paths.get(dataFile))) {
+            lines.filter(line -> line.split(",").length > 3).forEach(line -> {
+                String[] values = line.split(",");
+                try {
+                    SeriesOptions.apply(values[0].trim(), values, 3);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("[ERROR] Invalid options in line: " + line);
+                }
+            });
+        }
+        if (!ENABLED || ChapterArchive.isEnabled()) {
+            System.out.println("[INFO] Transcoding is disabled for this run");
+            return;
+        }
+        for (String mangaName : rules.keySet()) {
+            Path mangaPath = Paths.get(MANGAS_DIR, mangaName);
+            if (!Files.isDirectory(mangaPath)) {
+                continue;
+            }
+            LibraryManifest.Series manifest = LibraryManifest.forSeries(mangaPath);
+            Rule rule = rules.get(mangaName);
+            try (Stream<Path> chapters = Files.list(mangaPath)) {
+                chapters.filter(Files::isDirectory)
+                        .filter(path -> path.getFileName().toString().startsWith(CHAPTER_PREFIX))
+                        .forEach(chapterDir -> queueChapter(mangaName, chapterDir, rule, manifest));
+            }
+        }
+        awaitIdle();
+        LibraryManifest.saveAll();
+        PageValidators.saveAll();
+        printSummary();
+    }
+
+    /**
+     * Queues the pages of a chapter folder, waiting for room in the queue since no download is running
+     */
+    private static void queueChapter(String mangaName, Path chapterDir, Rule rule, LibraryManifest.Series manifest) {
+        int chapterIndex;
+        try {
+            chapterIndex = Integer.parseInt(chapterDir.getFileName().toString().substring(CHAPTER_PREFIX.length()).trim());
+        } catch (NumberFormatException e) {
+            return;
+        }
+        try (Stream<Path> pages = Files.list(chapterDir)) {
+            pages.filter(Files::isRegularFile)
+                    .filter(path -> !path.getFileName().toString().startsWith("."))
+                    .filter(path -> PageValidators.get(path) == null || PageValidators.get(path).transcodedFrom == null)
+                    .forEach(page -> {
+                        try {
+                            ThreadPoolExecutor pool = workers();
+                            pool.prestartAllCoreThreads();
+                            pool.getQueue().put(() -> transcode(mangaName, page, rule, manifest, chapterIndex));
+                            peakBacklog.accumulateAndGet(pool.getQueue().size(), Math::max);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    });
+        } catch (IOException e) {
+            System.err.println("[ERROR] Failed to list " + chapterDir + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package d1;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * HTTP validators (ETag / Last-Modified) of downloaded pages, kept in a
+ * .validators file inside each chapter folder so pages can be revalidated
+ * with conditional requests.
+ */
+public class PageValidators {
+
+    public static final String VALIDATORS_FILE = ".validators";
+    private static final String SEPARATOR = "\t";
+
+    private static final Map<Path, Folder> folders = new ConcurrentHashMap<>();
+
+    /**
+     * Validators stored for a single page
+     */
+    public static class Validator {
+        public final String etag;
+        public final String lastModified;
+        /** File name the page was downloaded as before PageTranscoder re-encoded it, or null */
+        public final String transcodedFrom;
+
+        Validator(String etag, String lastModified, String transcodedFrom) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.transcodedFrom = transcodedFrom;
+        }
+    }
+
+    private static class Folder {
+        final Path path;
+        final Properties entries = new Properties();
+        boolean dirty = false;
+
+        Folder(Path path) {
+            this.path = path;
+            Path file = path.resolve(VALIDATORS_FILE);
+            if (Files.exists(file)) {
+                try (InputStream in = Files.newInputStream(file)) {
+                    entries.load(in);
+                } catch (IOException e) {
+                    System.err.println("[WARN] Failed to read " + file + ": " + e.getMessage());
+                }
+            }
+        }
+
+        synchronized void save() {
+            if (!dirty) {
+                return;
+            }
+            Path temp = path.resolve(VALIDATORS_FILE + ".tmp");
+            try {
+                try (OutputStream out = Files.newOutputStream(temp)) {
+                    entries.store(out, null);
+                }
+                Files.move(temp, path.resolve(VALIDATORS_FILE), StandardCopyOption.REPLACE_EXISTING);
+                dirty = false;
+            } catch (IOException e) {
+                System.err.println("[WARN] Failed to write validators in " + path + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static Folder folder(Path pagePath) {
+        return folders.computeIfAbsent(pagePath.toAbsolutePath().getParent(), Folder::new);
+    }
+
+    /**
+     * Returns the validators stored for a page, or null if none were recorded
+     */
+    public static Validator get(Path pagePath) {
+        Folder folder = folder(pagePath);
+        String value;
+        synchronized (folder) {
+            value = folder.entries.getProperty(pagePath.getFileName().toString());
+        }
+        if (value == null) {
+            return null;
+        }
+        String[] parts = value.split(SEPARATOR, -1);
+        return new Validator(emptyToNull(parts[0]), parts.length > 1 ? emptyToNull(parts[1]) : null,
+                parts.length > 2 ? emptyToNull(parts[2]) : null);
+    }
+
+    /**
+     * Stores the ETag and Last-Modified headers of a response for a page
+     */
+    public static void record(Path pagePath, HttpResponse<?> response) {
+        String etag = response.headers().firstValue("ETag").orElse("");
+        String lastModified = response.headers().firstValue("Last-Modified").orElse("");
+        Folder folder = folder(pagePath);
+        synchronized (folder) {
+            if (etag.isEmpty() && lastModified.isEmpty()) {
+                folder.dirty |= folder.entries.remove(pagePath.getFileName().toString()) != null;
+            } else {
+                folder.entries.setProperty(pagePath.getFileName().toString(), etag + SEPARATOR + lastModified);
+                folder.dirty = true;
+            }
+        }
+    }
+
+    /**
+     * Records that a page was re-encoded from another file; its content no longer matches the server, so it
+     * keeps no HTTP validators. Written straight away since the chapter's validators may already be flushed.
+     */
+    public static void recordTranscoded(Path pagePath, String originalFileName) {
+        Folder folder = folder(pagePath);
+        synchronized (folder) {
+            folder.entries.remove(originalFileName);
+            folder.entries.setProperty(pagePath.getFileName().toString(), SEPARATOR + SEPARATOR + originalFileName);
+            folder.dirty = true;
+        }
+        folder.save();
+    }
+
+    /**
+     * Writes the validators of a chapter folder to disk
+     */
+    public static void flush(Path chapterPath) {
+        Folder folder = folders.remove(chapterPath.toAbsolutePath());
+        if (folder != null) {
+            folder.save();
+        }
+    }
+
+    /**
+     * Forgets the validators of a folder without writing them, e.g. once its pages were archived
+     */
+    public static void discard(Path chapterPath) {
+        folders.remove(chapterPath.toAbsolutePath());
+    }
+
+    /**
+     * Writes every changed validators file to disk
+     */
+    public static void saveAll() {
+        for (Folder folder : folders.values()) {
+            folder.save();
+        }
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+}
@@ -0,0 +1,141 @@
+package d1;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Global token buckets for requests per second and bytes per second.
+ * Rates start from manga.rate.requestsPerSecond and manga.rate.bytesPerSecond (0 = unlimited)
+ * and can be changed while running through the setters or by editing rate-limits.properties
+ * in the working directory, which is re-read every few seconds.
+ */
+public final class RateLimiter {
+
+    private static final Path LIMITS_FILE = Paths.get("rate-limits.properties");
+    private static final long RELOAD_INTERVAL_MS = 5000;
+
+    private static final Bucket requests = new Bucket(Long.getLong("manga.rate.requestsPerSecond", 0));
+    private static final Bucket bytes = new Bucket(Long.getLong("manga.rate.bytesPerSecond", 0));
+
+    private static volatile long lastReloadCheck = 0;
+    private static volatile long limitsFileModified = -1;
+
+    /**
+     * Token bucket holding at most one second worth of tokens.
+     * Callers reserve tokens up front and sleep off any debt outside the lock.
+     */
+    private static class Bucket {
+        private final ReentrantLock lock = new ReentrantLock();
+        private long ratePerSecond;
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+
+        Bucket(long ratePerSecond) {
+            this.ratePerSecond = ratePerSecond;
+            this.tokens = ratePerSecond;
+        }
+
+        void setRate(long ratePerSecond) {
+            lock.lock();
+            try {
+                this.ratePerSecond = ratePerSecond;
+                this.tokens = Math.min(tokens, ratePerSecond);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long getRate() {
+            return ratePerSecond;
+        }
+
+        void acquire(long amount) throws InterruptedException {
+            long waitNanos;
+            lock.lock();
+            try {
+                if (ratePerSecond <= 0) {
+                    return;
+                }
+                long now = System.nanoTime();
+                tokens = Math.min(ratePerSecond, tokens + (now - lastRefill) * ratePerSecond / 1e9);
+                lastRefill = now;
+                tokens -= amount;
+                waitNanos = tokens >= 0 ? 0 : (long) (-tokens * 1e9 / ratePerSecond);
+            } finally {
+                lock.unlock();
+            }
+            if (waitNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+        }
+    }
+
+    private RateLimiter() {
+    }
+
+    /**
+     * Blocks until another request may be sent
+     */
+    public static void acquireRequest() throws InterruptedException {
+        reloadIfChanged();
+        requests.acquire(1);
+    }
+
+    /**
+     * Blocks until the given number of bytes may be transferred
+     */
+    public static void acquireBytes(long amount) throws InterruptedException {
+        bytes.acquire(amount);
+    }
+
+    public static void setRequestsPerSecond(long rate) {
+        requests.setRate(rate);
+    }
+
+    public static void setBytesPerSecond(long rate) {
+        bytes.setRate(rate);
+    }
+
+    public static long getRequestsPerSecond() {
+        return requests.getRate();
+    }
+
+    public static long getBytesPerSecond() {
+        return bytes.getRate();
+    }
+
+    private static void reloadIfChanged() {
+        long now = System.currentTimeMillis();
+        if (now - lastReloadCheck < RELOAD_INTERVAL_MS) {
+            return;
+        }
+        lastReloadCheck = now;
+
+        try {
+            if (!Files.exists(LIMITS_FILE)) {
+                return;
+            }
+            long modified = Files.getLastModifiedTime(LIMITS_FILE).toMillis();
+            if (modified == limitsFileModified) {
+                return;
+            }
+            limitsFileModified = modified;
+
+            Properties properties = new Properties();
+            try (InputStream in = Files.newInputStream(LIMITS_FILE)) {
+                properties.load(in);
+            }
+            setRequestsPerSecond(Long.parseLong(properties.getProperty("requestsPerSecond", String.valueOf(getRequestsPerSecond())).trim()));
+            setBytesPerSecond(Long.parseLong(properties.getProperty("bytesPerSecond", String.valueOf(getBytesPerSecond())).trim()));
+            System.out.println("[INFO] Rate limits updated: " + getRequestsPerSecond() + " requests/s, " + getBytesPerSecond() + " bytes/s");
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("[WARN] Failed to read " + LIMITS_FILE + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package d1;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event for a single HTTP request, from sending it until the response headers arrived.
+ * Costs almost nothing unless a JFR recording with this event enabled is running.
+ */
+@Name("d1.HttpRequest")
+@Label("HTTP Request")
+@Category("Manga Downloader")
+@Description("A page or probe request sent to the manga host")
+public class RequestEvent extends Event {
+
+    @Label("URL")
+    public String url;
+
+    @Label("Method")
+    public String method;
+
+    @Label("Status")
+    public int status;
+
+    @Label("Queue Wait")
+    @Description("Time spent waiting for a request permit before sending")
+    @Timespan(Timespan.NANOSECONDS)
+    public long queueWait;
+}
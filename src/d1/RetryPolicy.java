@@ -0,0 +1,26 @@
+package d1;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Jittered exponential backoff for transient failures.
+ * Configured with manga.retry.maxAttempts, manga.retry.baseDelayMs and manga.retry.maxDelayMs.
+ */
+public final class RetryPolicy {
+
+    public static final int MAX_ATTEMPTS = Math.max(1, Integer.getInteger("manga.retry.maxAttempts", 4));
+    private static final long BASE_DELAY_MS = Long.getLong("manga.retry.baseDelayMs", 500);
+    private static final long MAX_DELAY_MS = Long.getLong("manga.retry.maxDelayMs", 30000);
+
+    private RetryPolicy() {
+    }
+
+    /**
+     * Sleeps before the given retry (1 for the first retry). The delay doubles with each retry
+     * and is drawn from the upper half of that range so that workers failing together spread out.
+     */
+    public static void backoff(int retry) throws InterruptedException {
+        long ceiling = Math.min(MAX_DELAY_MS, BASE_DELAY_MS << Math.min(retry - 1, 20));
+        Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1));
+    }
+}
@@ -0,0 +1,39 @@
+package d1;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Revalidates downloaded pages with conditional requests and replaces only the pages that changed.
+ * Takes manga names as arguments, or revalidates every series in the Mangas folder.
+ */
+public class Revalidate extends DownloadManga {
+    public static void main(String[] args) {
+        List<String> names;
+        if (args.length > 0) {
+            names = List.of(args);
+        } else {
+            try (Stream<Path> paths = Files.list(Paths.get("Mangas"))) {
+                names = paths.filter(Files::isDirectory)
+                        .filter(path -> !path.getFileName().toString().startsWith("."))
+                        .map(path -> path.getFileName().toString())
+                        .collect(Collectors.toList());
+            } catch (IOException e) {
+                System.err.println("[ERROR] Failed to read Mangas directory: " + e.getMessage());
+                return;
+            }
+        }
+
+        System.out.println("Revalidating " + names.size() + " manga(s)...");
+        for (String name : names) {
+            revalidateManga(name);
+        }
+
+        RunState.finish("revalidate");
+    }
+}
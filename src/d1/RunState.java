@@ -0,0 +1,46 @@
+package d1;
+
+/**
+ * Saves the state every program shares and prints the end-of-run summaries,
+ * so DownloadFromList, Update, Test, Revalidate and UpdateDaemon shut down the same way.
+ */
+public final class RunState {
+
+    private RunState() {
+    }
+
+    /**
+     * Saves the learned stores and checkpoints the journal without ending the run, e.g. after a daemon check
+     */
+    public static void save() {
+        saveStores();
+        DownloadJournal.checkpoint();
+    }
+
+    /**
+     * Ends a run: waits for pending transcodes, saves the stores, closes the journal and prints the summaries
+     * @param run Name of the program that ran, such as "update"
+     */
+    public static void finish(String run) {
+        PageTranscoder.awaitIdle();
+        saveStores();
+        DownloadJournal.close();
+        HttpEngine.printSummary();
+        PageSources.printSummary();
+        DownloadScheduler.printSummary();
+        PageStore.printSummary();
+        PageTranscoder.printSummary();
+        ExtensionPredictor.printSummary();
+        NegativeCache.printSummary();
+        DownloadJournal.printSummary();
+        Metrics.writeSummary(run);
+    }
+
+    private static void saveStores() {
+        ExtensionPredictor.save();
+        ChapterFormats.save();
+        NegativeCache.save();
+        LibraryManifest.saveAll();
+        PageValidators.saveAll();
+    }
+}
@@ -0,0 +1,39 @@
+package d1;
+
+/**
+ * Optional columns of a data.txt line after name, chapters and format. Each is either
+ * priority=N or weight=X for the ChapterScheduler, mirror=URL for an extra PageSources mirror of the series,
+ * or a PageTranscoder rule such as jpg:85:1600:
+ *   weak-hero,120,3,priority=1,weight=2,mirror=https://mirror.example/manga/,jpg:85:1600
+ * Any other key=value column is rejected rather than read as a transcode rule, so a misspelt key is not ignored.
+ */
+public final class SeriesOptions {
+
+    private SeriesOptions() {
+    }
+
+    /**
+     * Applies the optional columns of a data.txt line to the series
+     * @param values All columns of the line
+     * @param firstOption Index of the first optional column
+     * @throws IllegalArgumentException if a priority or weight is not a number, or a key= column is unknown
+     */
+    public static void apply(String mangaName, String[] values, int firstOption) {
+        String transcodeRule = null;
+        for (int i = firstOption; i < values.length; i++) {
+            String option = values[i].trim();
+            if (option.startsWith("priority=")) {
+                ChapterScheduler.configure(mangaName, Integer.parseInt(option.substring("priority=".length()).trim()), null);
+            } else if (option.startsWith("weight=")) {
+                ChapterScheduler.configure(mangaName, null, Double.parseDouble(option.substring("weight=".length()).trim()));
+            } else if (option.startsWith("mirror=")) {
+                PageSources.addMirror(mangaName, option.substring("mirror=".length()).trim());
+            } else if (option.contains("=")) {
+                throw new IllegalArgumentException("Unknown option " + option);
+            } else if (!option.isEmpty()) {
+                transcodeRule = option;
+            }
+        }
+        PageTranscoder.setRule(mangaName, transcodeRule);
+    }
+}
@@ -5,6 +5,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class Test extends DownloadManga {
 public static void main(String[] args) throws IOException {
@@ -18,6 +19,8 @@ public static void main(String[] args) throws IOException {
     	
         System.out.println("Found " + array.length + " manga entries to process");
         
+        Deadline.startRun();
+        ChapterScheduler scheduler = new ChapterScheduler("test", DownloadScheduler.getMaxChapters());
         for (Object[] manga : array) {
             try {
                 String name = (String) manga[0];
@@ -27,14 +30,16 @@ public static void main(String[] args) throws IOException {
                 System.out.println("\nProcessing manga: " + name);
                 System.out.println("Chapters to download: " + chapterAmount);
                 
-                // Start downloading manga
-                downloadManga(name, chapterAmount, format);
+                // Queue the chapters; every series downloads on the shared scheduler
+                queueManga(scheduler, name, chapterAmount, format);
             } catch (Exception e) {
                 System.err.println("Error processing manga entry: " + e.getMessage());
             }
         }
+        scheduler.awaitCompletion(24, TimeUnit.HOURS);
         
         System.out.println("\nAll manga processing completed");
+        RunState.finish("test");
     } catch (IOException e) {
         System.err.println("Error reading data file: " + e.getMessage());
         System.exit(1);
@@ -54,11 +59,16 @@ public static void main(String[] args) throws IOException {
             while ((line = reader.readLine()) != null) {
                 // Split by comma instead of whitespace
                 String[] values = line.trim().split(",");
-                if (values.length == 3) {
+                if (values.length >= 3) {
                     Object[] row = new Object[3];
                     row[0] = values[0].trim();  // manga name as String
                     row[1] = Integer.parseInt(values[1].trim());  // chapter amount as int
                     row[2] = values[2].trim();  // format digits as String
+                    try {
+                        SeriesOptions.apply(row[0].toString(), values, 3);
+                    } catch (IllegalArgumentException e) {
+                        System.err.println("[ERROR] Invalid options in line: " + line);
+                    }
                     lines.add(row);
                 }
             }
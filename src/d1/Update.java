@@ -12,5 +12,6 @@ public class Update {
         } else {
             System.out.println("No new or missing chapters found for any manga.");
         }
+        RunState.finish("update");
     }
 }
@@ -0,0 +1,375 @@
+package d1;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Long-running alternative to Update that checks each series on its own schedule instead of all at once.
+ * Series wait in a priority queue ordered by when they are next due. A series' poll interval is a quarter of
+ * the median gap between its past releases, so weekly series are checked several times a week and monthly
+ * ones rarely; a series whose release is long overdue backs off towards the maximum interval. Every due time
+ * gets +/-10% jitter and new series start spread over manga.daemon.initialSpreadMinutes, so checks never
+ * arrive as one burst. Release times are kept in Mangas/.release-history across restarts.
+ * data.txt and the Mangas folder are re-read when they change, and a status page is served on
+ * http://127.0.0.1:&lt;manga.daemon.port&gt;/status.
+ */
+public class UpdateDaemon {
+
+    private static final String DATA_FILE = "data.txt";
+    private static final String MANGAS_DIR = "Mangas";
+    private static final Path HISTORY_FILE = Paths.get(MANGAS_DIR, ".release-history");
+    private static final int MAX_HISTORY = 20;
+
+    private static final long DEFAULT_INTERVAL_MS = TimeUnit.HOURS.toMillis(Long.getLong("manga.daemon.defaultIntervalHours", 6));
+    private static final long MIN_INTERVAL_MS = TimeUnit.MINUTES.toMillis(Long.getLong("manga.daemon.minIntervalMinutes", 30));
+    private static final long MAX_INTERVAL_MS = TimeUnit.HOURS.toMillis(Long.getLong("manga.daemon.maxIntervalHours", 168));
+    private static final long INITIAL_SPREAD_MS = TimeUnit.MINUTES.toMillis(Long.getLong("manga.daemon.initialSpreadMinutes", 10));
+    private static final long RESCAN_INTERVAL_MS = TimeUnit.SECONDS.toMillis(30);
+    private static final long SWEEP_INTERVAL_MS = TimeUnit.HOURS.toMillis(1);
+    private static final int PARALLEL_CHECKS = Integer.getInteger("manga.daemon.parallelChecks", 2);
+    private static final int PORT = Integer.getInteger("manga.daemon.port", 8089);
+
+    private final MangaUpdater updater = new MangaUpdater();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final PriorityQueue<Series> schedule = new PriorityQueue<>(Comparator.comparingLong((Series series) -> series.nextDue));
+    private final Map<String, Series> series = new ConcurrentHashMap<>();
+    private final Semaphore checkSlots = new Semaphore(PARALLEL_CHECKS);
+    private final ExecutorService checks = DownloadScheduler.newScope("daemon-check");
+    private final Instant started = Instant.now();
+    private long dataFileModified = -1;
+    private long lastSweep = 0;
+
+    /**
+     * Schedule and release history of one series
+     */
+    private static final class Series {
+        final String name;
+        final List<Long> releases = new ArrayList<>();
+        volatile long nextDue;
+        volatile long interval = DEFAULT_INTERVAL_MS;
+        volatile long lastCheck = 0;
+        volatile int lastNewChapters = 0;
+        volatile boolean checking = false;
+
+        Series(String name) {
+            this.name = name;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        new UpdateDaemon().run();
+    }
+
+    /**
+     * Runs until the process is stopped
+     */
+    public void run() throws IOException {
+        loadHistory();
+        HttpServer statusServer = startStatusServer();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            statusServer.stop(0);
+            RunState.save();
+        }, "daemon-shutdown"));
+        System.out.println("[INFO] Update daemon started | Status: http://127.0.0.1:" + statusServer.getAddress().getPort() + "/status");
+
+        long lastRescan = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            long now = System.currentTimeMillis();
+            if (now - lastRescan >= RESCAN_INTERVAL_MS) {
+                reloadDataFileIfChanged();
+                rescanSeries(now);
+                lastRescan = now;
+            }
+            if (now - lastSweep >= SWEEP_INTERVAL_MS) {
+                updater.sweepNegativeCache();
+                lastSweep = now;
+            }
+            try {
+                startDueChecks();
+                awaitNextDue(lastRescan + RESCAN_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Starts a check for every series that is due, as far as free check slots allow
+     */
+    private void startDueChecks() throws InterruptedException {
+        while (true) {
+            Series due;
+            lock.lock();
+            try {
+                Series next = schedule.peek();
+                if (next == null || next.nextDue > System.currentTimeMillis() || !checkSlots.tryAcquire()) {
+                    return;
+                }
+                due = schedule.poll();
+                due.checking = true;
+            } finally {
+                lock.unlock();
+            }
+            checks.submit(() -> check(due));
+        }
+    }
+
+    /**
+     * Sleeps until the next series is due, a check finishes, or the given time is reached
+     */
+    private void awaitNextDue(long wakeUpAt) throws InterruptedException {
+        lock.lock();
+        try {
+            Series next = schedule.peek();
+            long until = next == null ? wakeUpAt : Math.min(wakeUpAt, next.nextDue);
+            long wait = until - System.currentTimeMillis();
+            if (wait > 0) {
+                changed.await(wait, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void check(Series entry) {
+        int newChapters = 0;
+        // Each check is a run of its own, with its own run deadline
+        Deadline.startRun();
+        try {
+            // The daemon's schedule decides when to look for the next chapter, not the negative cache TTL
+            NegativeCache.clearPrefix(NegativeCache.Kind.CHAPTER_NEXT, entry.name + "#");
+            newChapters = updater.updateManga(entry.name);
+        } catch (RuntimeException e) {
+            System.err.println("[ERROR] Update check for " + entry.name + " failed: " + e.getMessage());
+        } finally {
+            PageTranscoder.awaitIdle();
+            RunState.save();
+            long now = System.currentTimeMillis();
+            lock.lock();
+            try {
+                entry.lastCheck = now;
+                entry.lastNewChapters = newChapters;
+                if (newChapters > 0) {
+                    synchronized (entry.releases) {
+                        entry.releases.add(now);
+                        while (entry.releases.size() > MAX_HISTORY) {
+                            entry.releases.remove(0);
+                        }
+                    }
+                    saveHistory();
+                }
+                entry.interval = nextInterval(entry, now);
+                entry.checking = false;
+                if (series.get(entry.name) == entry) {
+                    entry.nextDue = now + jitter(entry.interval);
+                    schedule.add(entry);
+                }
+                checkSlots.release();
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            System.out.println("[INFO] Manga: " + entry.name + " | Next check in " + TimeUnit.MILLISECONDS.toMinutes(entry.nextDue - now) + " minute(s)");
+        }
+    }
+
+    /**
+     * Returns a quarter of the median gap between releases; overdue series back off by doubling the interval
+     */
+    private static long nextInterval(Series entry, long now) {
+        List<Long> gaps = new ArrayList<>();
+        long lastRelease;
+        synchronized (entry.releases) {
+            for (int i = 1; i < entry.releases.size(); i++) {
+                gaps.add(entry.releases.get(i) - entry.releases.get(i - 1));
+            }
+            lastRelease = entry.releases.isEmpty() ? 0 : entry.releases.get(entry.releases.size() - 1);
+        }
+        if (gaps.isEmpty()) {
+            return DEFAULT_INTERVAL_MS;
+        }
+        Collections.sort(gaps);
+        long medianGap = gaps.get(gaps.size() / 2);
+        long interval = medianGap / 4;
+        if (now - lastRelease > 2 * medianGap) {
+            // Probably on hiatus; keep backing off until a release shows up again
+            interval = Math.max(interval, entry.interval * 2);
+        }
+        return Math.max(MIN_INTERVAL_MS, Math.min(MAX_INTERVAL_MS, interval));
+    }
+
+    private static long jitter(long interval) {
+        return (long) (interval * ThreadLocalRandom.current().nextDouble(0.9, 1.1));
+    }
+
+    /**
+     * Adds series folders that appeared and drops those that were removed
+     */
+    private void rescanSeries(long now) {
+        List<String> names = new ArrayList<>();
+        try (Stream<Path> paths = Files.list(Paths.get(MANGAS_DIR))) {
+            paths.filter(Files::isDirectory)
+                    .map(path -> path.getFileName().toString())
+                    .filter(name -> !name.startsWith("."))
+                    .forEach(names::add);
+        } catch (IOException e) {
+            System.err.println("[ERROR] Failed to read " + MANGAS_DIR + " directory: " + e.getMessage());
+            return;
+        }
+
+        lock.lock();
+        try {
+            for (String name : names) {
+                if (!series.containsKey(name)) {
+                    Series entry = new Series(name);
+                    entry.nextDue = now + ThreadLocalRandom.current().nextLong(INITIAL_SPREAD_MS + 1);
+                    series.put(name, entry);
+                    schedule.add(entry);
+                }
+            }
+            series.keySet().removeIf(name -> !names.contains(name));
+            schedule.removeIf(entry -> !series.containsKey(entry.name));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void reloadDataFileIfChanged() {
+        Path dataFile = Paths.get(DATA_FILE);
+        long modified;
+        try {
+            modified = Files.exists(dataFile) ? Files.getLastModifiedTime(dataFile).toMillis() : 0;
+        } catch (IOException e) {
+            return;
+        }
+        if (dataFileModified >= 0 && modified != dataFileModified) {
+            System.out.println("[INFO] " + DATA_FILE + " changed, reloading");
+            updater.reloadConfigs();
+        }
+        dataFileModified = modified;
+    }
+
+    private void loadHistory() {
+        if (!Files.exists(HISTORY_FILE)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(HISTORY_FILE)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\\|", 2);
+                if (parts.length < 2 || parts[1].isEmpty()) {
+                    continue;
+                }
+                Series entry = new Series(parts[0]);
+                try {
+                    for (String release : parts[1].split(",")) {
+                        entry.releases.add(Long.parseLong(release));
+                    }
+                } catch (NumberFormatException e) {
+                    System.err.println("[WARN] Skipping invalid release history line: " + line);
+                    continue;
+                }
+                entry.interval = nextInterval(entry, System.currentTimeMillis());
+                entry.nextDue = System.currentTimeMillis() + ThreadLocalRandom.current().nextLong(INITIAL_SPREAD_MS + 1);
+                series.put(entry.name, entry);
+                schedule.add(entry);
+            }
+        } catch (IOException e) {
+            System.err.println("[WARN] Failed to read " + HISTORY_FILE + ": " + e.getMessage());
+        }
+    }
+
+    private synchronized void saveHistory() {
+        Path temp = HISTORY_FILE.resolveSibling(HISTORY_FILE.getFileName() + ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(temp)) {
+                for (Series entry : series.values()) {
+                    synchronized (entry.releases) {
+                        if (entry.releases.isEmpty()) {
+                            continue;
+                        }
+                        StringBuilder line = new StringBuilder(entry.name).append('|');
+                        for (int i = 0; i < entry.releases.size(); i++) {
+                            line.append(i > 0 ? "," : "").append(entry.releases.get(i));
+                        }
+                        writer.write(line.toString());
+                        writer.newLine();
+                    }
+                }
+            }
+            Files.move(temp, HISTORY_FILE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.err.println("[WARN] Failed to write " + HISTORY_FILE + ": " + e.getMessage());
+        }
+    }
+
+    private HttpServer startStatusServer() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), PORT), 0);
+        server.createContext("/status", this::handleStatus);
+        server.setExecutor(DownloadScheduler.shared());
+        server.start();
+        return server;
+    }
+
+    private void handleStatus(HttpExchange exchange) throws IOException {
+        List<Series> entries = new ArrayList<>(series.values());
+        entries.sort(Comparator.comparingLong((Series entry) -> entry.nextDue));
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"startedAt\": \"").append(started).append("\",\n");
+        json.append("  \"checksRunning\": ").append(PARALLEL_CHECKS - checkSlots.availablePermits()).append(",\n");
+        json.append("  \"transcodeBacklog\": ").append(PageTranscoder.getBacklog()).append(",\n");
+        json.append("  \"series\": [");
+        String separator = "\n";
+        for (Series entry : entries) {
+            int releases;
+            synchronized (entry.releases) {
+                releases = entry.releases.size();
+            }
+            json.append(separator).append("    {\"name\": \"").append(entry.name.replace("\\", "\\\\").replace("\"", "\\\""))
+                    .append("\", \"checking\": ").append(entry.checking)
+                    .append(", \"nextDue\": \"").append(Instant.ofEpochMilli(entry.nextDue))
+                    .append("\", \"intervalMinutes\": ").append(TimeUnit.MILLISECONDS.toMinutes(entry.interval))
+                    .append(", \"lastCheck\": ").append(entry.lastCheck == 0 ? "null" : "\"" + Instant.ofEpochMilli(entry.lastCheck) + "\"")
+                    .append(", \"lastNewChapters\": ").append(entry.lastNewChapters)
+                    .append(", \"knownReleases\": ").append(releases).append("}");
+            separator = ",\n";
+        }
+        json.append("\n  ]\n}\n");
+
+        byte[] body = json.toString().getBytes(StandardCharsets.UTF_8);
+        try (exchange) {
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+}
@@ -1,5 +1,11 @@
 module DownloadIMG {
     requires java.base;
+    requires java.net.http;
+    requires java.desktop;
+    requires jdk.jfr;
+    requires jdk.httpserver;
     
     exports d1;
+
+    uses d1.PageSource;
 }